@@ -1,5 +1,5 @@
-CREATE TABLE PRODUCT (ID INTEGER GENERATED BY DEFAULT AS IDENTITY (START WITH 1) PRIMARY KEY NOT NULL, ITEMID INTEGER, DESCRIPTION VARCHAR(255), PRICE DOUBLE, QTY INTEGER)
-CREATE TABLE RENTALPRODUCT (ID INTEGER GENERATED BY DEFAULT AS IDENTITY (START WITH 1) PRIMARY KEY NOT NULL, RENTAL_ID INTEGER, PRODUCT_ID INTEGER, QTY INTEGER)
-CREATE TABLE RENTAL (ID INTEGER GENERATED BY DEFAULT AS IDENTITY (START WITH 1) PRIMARY KEY NOT NULL, DATE DATE, RETURN_DATE DATE, TOTAL DOUBLE, STATUS CHAR(1), RETURN_STATUS SMALLINT)
-ALTER TABLE RENTALPRODUCT ADD CONSTRAINT FK_RENTALPRODUCT_PRODUCT_ID FOREIGN KEY (PRODUCT_ID) REFERENCES PRODUCT (ID)
-ALTER TABLE RENTALPRODUCT ADD CONSTRAINT FK_RENTALPRODUCT_RENTALPRODUCTS_ID FOREIGN KEY (RENTAL_ID) REFERENCES RENTAL (ID)
\ No newline at end of file
+CREATE TABLE PRODUCT (ID INTEGER GENERATED BY DEFAULT AS IDENTITY (START WITH 1) PRIMARY KEY NOT NULL, ITEMID INTEGER, DESCRIPTION VARCHAR(255), PRICE DOUBLE, QTY INTEGER);
+CREATE TABLE RENTALPRODUCT (ID INTEGER GENERATED BY DEFAULT AS IDENTITY (START WITH 1) PRIMARY KEY NOT NULL, RENTAL_ID INTEGER, PRODUCT_ID INTEGER, QTY INTEGER);
+CREATE TABLE RENTAL (ID INTEGER GENERATED BY DEFAULT AS IDENTITY (START WITH 1) PRIMARY KEY NOT NULL, DATE DATE, RETURN_DATE DATE, TOTAL DOUBLE, STATUS CHAR(1), RETURN_STATUS SMALLINT);
+ALTER TABLE RENTALPRODUCT ADD CONSTRAINT FK_RENTALPRODUCT_PRODUCT_ID FOREIGN KEY (PRODUCT_ID) REFERENCES PRODUCT (ID);
+ALTER TABLE RENTALPRODUCT ADD CONSTRAINT FK_RENTALPRODUCT_RENTALPRODUCTS_ID FOREIGN KEY (RENTAL_ID) REFERENCES RENTAL (ID);
\ No newline at end of file
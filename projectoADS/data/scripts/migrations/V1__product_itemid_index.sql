@@ -0,0 +1 @@
+CREATE UNIQUE INDEX IDX_PRODUCT_ITEMID ON PRODUCT (ITEMID)
\ No newline at end of file
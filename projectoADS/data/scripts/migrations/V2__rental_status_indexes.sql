@@ -0,0 +1,2 @@
+CREATE INDEX IDX_RENTAL_RETURN ON RENTAL (RETURN_STATUS, RETURN_DATE)
+CREATE INDEX IDX_RENTAL_STATUS ON RENTAL (STATUS, RETURN_STATUS)
\ No newline at end of file
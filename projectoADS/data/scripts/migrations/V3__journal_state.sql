@@ -0,0 +1 @@
+CREATE TABLE JOURNAL_STATE (ID INTEGER PRIMARY KEY NOT NULL, GENERATION BIGINT, APPLIED_OFFSET INTEGER)
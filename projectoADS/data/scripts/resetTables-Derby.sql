@@ -1,3 +1,3 @@
-DELETE FROM RENTALPRODUCT
-DELETE FROM RENTAL
-DELETE FROM PRODUCT
\ No newline at end of file
+DELETE FROM RENTALPRODUCT;
+DELETE FROM RENTAL;
+DELETE FROM PRODUCT;
\ No newline at end of file
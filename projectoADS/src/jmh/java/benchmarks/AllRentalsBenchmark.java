@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import business.Rental;
+import dataaccess.PersistenceException;
+import dataaccess.ProductMapper;
+import dataaccess.RentalMapper;
+
+/**
+ * Loading every rental, with its products, with nothing cached
+ *
+ * @author ADS08
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AllRentalsBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int rentals;
+
+	@Setup
+	public void createDatabase() throws Exception {
+		BenchmarkDatabase.create(rentals);
+	}
+
+	@TearDown
+	public void closeDatabase() {
+		BenchmarkDatabase.close();
+	}
+
+	@Setup(Level.Invocation)
+	public void emptyCaches() {
+		RentalMapper.clearCache();
+		ProductMapper.clearCache();
+	}
+
+	@Benchmark
+	public List<Rental> allRentals() throws PersistenceException {
+		return RentalMapper.getAllRentals();
+	}
+}
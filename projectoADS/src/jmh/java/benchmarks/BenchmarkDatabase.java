@@ -0,0 +1,113 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+import business.Rental;
+import dataaccess.DataSource;
+import dataaccess.PersistenceException;
+import dbutils.RunSQLScript;
+import dbutils.SchemaMigrator;
+
+/**
+ * The database the benchmarks run against: an embedded Derby database under
+ * target/jmh, created from scratch with the project's scripts and seeded with
+ * the rows of populateTables-Derby.sql plus a given number of extra rentals.
+ *
+ * Benchmarks must be run from the project directory, where data/scripts is.
+ *
+ * @author ADS08
+ */
+final class BenchmarkDatabase {
+
+	private static final String DIRECTORY = "target/jmh/adsdb";
+	private static final String URL = "jdbc:derby:" + DIRECTORY + ";create=true";
+
+	// ids of the extra rows, far from the seeded ones and from the ones the benchmarks generate
+	static final int FIRST_RENTAL_ID = 1000001;
+	static final int FIRST_RENTAL_PRODUCT_ID = 1000001;
+
+	// ids of the products of populateTables-Derby.sql
+	static final int[] PRODUCT_IDS = { 1001, 1002, 1003, 1004, 1005, 1006 };
+	static final int[] PRODUCT_CODES = { 101, 102, 103, 104, 105, 106 };
+
+	private static final int BATCH_SIZE = 5000;
+
+	private static final String INSERT_RENTAL_SQL =
+			"INSERT INTO rental (id, date, return_date, total, status, return_status) VALUES (?, ?, ?, 0, '"
+			+ Rental.CLOSED + "', ?)";
+	private static final String INSERT_RENTAL_PRODUCT_SQL =
+			"INSERT INTO rentalproduct (id, rental_id, product_id, qty) VALUES (?, ?, ?, 1)";
+
+	private BenchmarkDatabase() {
+	}
+
+	/**
+	 * Creates the database and connects the DataSource to it
+	 *
+	 * @param extraRentals The number of rentals added to the seeded ones, each with two products
+	 */
+	static void create(int extraRentals) throws IOException, SQLException, PersistenceException {
+		delete(new File(DIRECTORY));
+		DataSource.INSTANCE.connect(URL, "RentalSys", "");
+		Connection connection = DataSource.INSTANCE.getConnection();
+		try {
+			RunSQLScript.runScript(connection, "data/scripts/createDDL-Derby.sql");
+			RunSQLScript.runScript(connection, "data/scripts/populateTables-Derby.sql");
+			new SchemaMigrator().migrate(connection);
+			insertRentals(connection, extraRentals);
+		} finally {
+			DataSource.INSTANCE.releaseConnection();
+		}
+	}
+
+	/**
+	 * Disconnects the DataSource from the database
+	 */
+	static void close() {
+		DataSource.INSTANCE.close();
+	}
+
+	private static void insertRentals(Connection connection, int count) throws SQLException {
+		LocalDate start = LocalDate.of(2018, 1, 1);
+		connection.setAutoCommit(false);
+		try (PreparedStatement rentals = connection.prepareStatement(INSERT_RENTAL_SQL);
+			 PreparedStatement products = connection.prepareStatement(INSERT_RENTAL_PRODUCT_SQL)) {
+			for (int i = 0; i < count; i++) {
+				int rentalId = FIRST_RENTAL_ID + i;
+				LocalDate date = start.plusDays(i % 1000);
+				rentals.setInt(1, rentalId);
+				rentals.setDate(2, Date.valueOf(date));
+				rentals.setDate(3, Date.valueOf(date.plusDays(7)));
+				rentals.setByte(4, i % 10 == 0 ? Rental.WAITING : Rental.RETURNED);
+				rentals.addBatch();
+				for (int line = 0; line < 2; line++) {
+					products.setInt(1, FIRST_RENTAL_PRODUCT_ID + 2 * i + line);
+					products.setInt(2, rentalId);
+					products.setInt(3, PRODUCT_IDS[(i + line) % PRODUCT_IDS.length]);
+					products.addBatch();
+				}
+				if ((i + 1) % BATCH_SIZE == 0 || i == count - 1) {
+					rentals.executeBatch();
+					products.executeBatch();
+					connection.commit();
+				}
+			}
+		} finally {
+			connection.setAutoCommit(true);
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+}
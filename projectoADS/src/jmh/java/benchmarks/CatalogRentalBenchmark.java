@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import business.ApplicationException;
+import business.CatalogRental;
+import business.Rental;
+import dataaccess.ProductMapper;
+
+/**
+ * Adding a product to a rental: a stock update and an insert, each one committed
+ *
+ * @author ADS08
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogRentalBenchmark {
+
+	// enough stock for any iteration
+	private static final int STOCK = 1000000000;
+
+	private CatalogRental catalog;
+	private Rental rental;
+
+	@Setup
+	public void createDatabase() throws Exception {
+		BenchmarkDatabase.create(0);
+		catalog = new CatalogRental();
+	}
+
+	@TearDown
+	public void closeDatabase() {
+		BenchmarkDatabase.close();
+	}
+
+	@Setup(Level.Iteration)
+	public void newRental() throws Exception {
+		ProductMapper.updateStockValue(BenchmarkDatabase.PRODUCT_IDS[0], STOCK);
+		rental = catalog.newRental(new Date());
+	}
+
+	@Benchmark
+	public void addProductToRental() throws ApplicationException {
+		catalog.addProductToRental(rental, BenchmarkDatabase.PRODUCT_CODES[0], 1);
+	}
+}
@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import business.PenaltyEngine;
+import business.ProductSpec;
+import business.Rental;
+
+/**
+ * Penalty and total of rentals in memory, one at a time and in batches
+ *
+ * @author ADS08
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PenaltyBenchmark {
+
+	private static final int BATCH = 100000;
+
+	@Param({ "1", "10", "1000" })
+	public int lines;
+
+	private Rental rental;
+	private List<Rental> batch;
+	private PenaltyEngine engine;
+	private Date soft;
+	private Date hard;
+
+	@Setup
+	public void createRentals() {
+		ProductSpec product = new ProductSpec(1001, 101, "GTX 1080", 700, 20);
+		Calendar calendar = Calendar.getInstance();
+		Date now = calendar.getTime();
+		calendar.add(Calendar.DAY_OF_YEAR, 3);
+		soft = calendar.getTime();
+		calendar.add(Calendar.DAY_OF_YEAR, 10);
+		hard = calendar.getTime();
+
+		rental = rental(0, now, product);
+		batch = new ArrayList<Rental>(BATCH);
+		for (int id = 0; id < BATCH; id++)
+			batch.add(rental(id, now, product));
+		engine = new PenaltyEngine(batch);
+	}
+
+	private Rental rental(int id, Date now, ProductSpec product) {
+		Rental rental = new Rental(id, now, now);
+		for (int line = 0; line < lines; line++)
+			rental.addProductToRental(product, 1);
+		return rental;
+	}
+
+	@Benchmark
+	public double total() {
+		return rental.total();
+	}
+
+	@Benchmark
+	public double penaltySoftLimit() {
+		return rental.penalty(soft);
+	}
+
+	@Benchmark
+	public double penaltyHardLimit() {
+		return rental.penalty(hard);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public double batchPenaltyLoop() {
+		double total = 0.0;
+		for (Rental r : batch)
+			total += r.penalty(hard);
+		return total;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public double batchPenaltyEngine() {
+		return engine.penalties(hard).getTotal();
+	}
+}
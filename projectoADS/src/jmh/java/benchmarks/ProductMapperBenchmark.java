@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import business.ProductSpec;
+import dataaccess.PersistenceException;
+import dataaccess.ProductMapper;
+
+/**
+ * Looking up products by their code, served by the product cache or by the database
+ *
+ * @author ADS08
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductMapperBenchmark {
+
+	private int next;
+
+	@Setup
+	public void createDatabase() throws Exception {
+		BenchmarkDatabase.create(0);
+	}
+
+	@TearDown
+	public void closeDatabase() {
+		BenchmarkDatabase.close();
+	}
+
+	private int nextCode() {
+		next = (next + 1) % BenchmarkDatabase.PRODUCT_CODES.length;
+		return BenchmarkDatabase.PRODUCT_CODES[next];
+	}
+
+	@Benchmark
+	public ProductSpec productByCodeCached() throws PersistenceException {
+		return ProductMapper.getProductByProdCod(nextCode());
+	}
+
+	@Benchmark
+	public ProductSpec productByCodeUncached() throws PersistenceException {
+		ProductMapper.clearCache();
+		return ProductMapper.getProductByProdCod(nextCode());
+	}
+}
@@ -0,0 +1,77 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import business.Rental;
+import dataaccess.PersistenceException;
+import dataaccess.ProductMapper;
+import dataaccess.RentalMapper;
+
+/**
+ * Loading one rental by its id, from the database (cold) or from the rental cache
+ *
+ * @author ADS08
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RentalMapperBenchmark {
+
+	private static final int RENTALS = 1000;
+
+	private int next;
+
+	@Setup
+	public void createDatabase() throws Exception {
+		BenchmarkDatabase.create(RENTALS);
+	}
+
+	@TearDown
+	public void closeDatabase() {
+		BenchmarkDatabase.close();
+	}
+
+	private int nextId() {
+		next = (next + 1) % RENTALS;
+		return BenchmarkDatabase.FIRST_RENTAL_ID + next;
+	}
+
+	/**
+	 * Empties the caches before each cold read (the invocations take long
+	 * enough for the setup overhead not to matter)
+	 */
+	@State(Scope.Thread)
+	public static class EmptyCaches {
+		@Setup(Level.Invocation)
+		public void clear() {
+			RentalMapper.clearCache();
+			ProductMapper.clearCache();
+		}
+	}
+
+	@Benchmark
+	public Rental rentalByIdCold(EmptyCaches caches) throws PersistenceException {
+		return RentalMapper.getRentalById(nextId());
+	}
+
+	@Benchmark
+	public Rental rentalByIdCached() throws PersistenceException {
+		return RentalMapper.getRentalById(nextId());
+	}
+}
@@ -1,7 +1,8 @@
 package business;
 
+import dataaccess.DatabaseStorage;
 import dataaccess.PersistenceException;
-import dataaccess.ProductMapper;
+import dataaccess.Storage;
 
 import java.util.List;
 
@@ -12,6 +13,25 @@ import java.util.List;
  */
 public class CatalogProduct {
 
+    // where the products are kept
+    private final Storage storage;
+
+    /**
+     * Creates a catalog of the products kept in the database
+     */
+    public CatalogProduct() {
+        this(DatabaseStorage.INSTANCE);
+    }
+
+    /**
+     * Creates a catalog of the products kept in a given storage
+     *
+     * @param storage where the products are kept
+     */
+    public CatalogProduct(Storage storage) {
+        this.storage = storage;
+    }
+
     /**
      * Returns an object ProductSpec that is identified by itemID
      *
@@ -22,7 +42,7 @@ public class CatalogProduct {
     public ProductSpec getProduct(int itemID) throws ApplicationException {
 
         try {
-            return ProductMapper.getProductByProdCod(itemID);
+            return storage.products().getProductByProdCod(itemID);
         } catch (PersistenceException e) {
             throw new ApplicationException("Unable to retrieve product with itemID " + itemID);
         }
@@ -1,10 +1,17 @@
 package business;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.LocalDate;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import dataaccess.*;
-import javafx.application.Application;
+import metrics.Metrics;
+import metrics.OperationMetrics;
 
 /**
  * Includes operations regarding Rentals
@@ -12,6 +19,58 @@ import javafx.application.Application;
  * @author jpn, ADS08
  */
 public class CatalogRental {
+
+    // the number of rentals read from the database at a time when listing them
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    // the metrics of the listings, which run outside the use case handlers
+    private static final OperationMetrics GET_ALL_RENTALS = Metrics.of(Metrics.CATALOG, "CatalogRental.getAllRentals");
+    private static final OperationMetrics GET_RENTALS = Metrics.of(Metrics.CATALOG, "CatalogRental.getRentals");
+    private static final OperationMetrics FIND_OVERDUE_RENTALS =
+            Metrics.of(Metrics.CATALOG, "CatalogRental.findOverdueRentals");
+
+    // where products and rentals are kept
+    private final Storage storage;
+
+    // where the stock is kept instead of the storage, if any
+    private final InventoryEngine inventory;
+
+    /**
+     * Creates a catalog of the rentals kept in the database
+     */
+    public CatalogRental() {
+        this(DatabaseStorage.INSTANCE);
+    }
+
+    /**
+     * Creates a catalog of the rentals kept in a given storage
+     *
+     * @param storage where products and rentals are kept
+     */
+    public CatalogRental(Storage storage) {
+        this(storage, null);
+    }
+
+    /**
+     * Creates a catalog of the rentals kept in a given storage, whose products
+     * are rented and returned through an inventory engine
+     *
+     * @param storage   where products and rentals are kept
+     * @param inventory where the stock of the products is kept, or null to
+     *                  keep it in the storage
+     */
+    public CatalogRental(Storage storage, InventoryEngine inventory) {
+        this.storage = storage;
+        this.inventory = inventory;
+    }
+
+    /**
+     * @return where the products and rentals of the catalog are kept
+     */
+    public Storage getStorage() {
+        return storage;
+    }
+
     /**
      * Creates a new rental, initially it open, and has a total of zero
      *
@@ -21,8 +80,8 @@ public class CatalogRental {
     public Rental newRental(Date returnDate) throws ApplicationException {
 
         try {
-            int rental_id = RentalMapper.insert(new Date(), returnDate);  // create new entry in the database
-            return RentalMapper.getRentalById(rental_id);
+            int rental_id = storage.rentals().insert(new Date(), returnDate);  // create new entry in the database
+            return storage.rentals().getRentalById(rental_id);
         } catch (PersistenceException e) {
             throw new ApplicationException("Unable to create new rental", e);
         }
@@ -51,28 +110,97 @@ public class CatalogRental {
 
         ProductSpec product;
 
-        // check if product exists and the stock is enough, if so update stock
-        try {
-            product = ProductMapper.getProductByProdCod(prod_id);
+        try (UnitOfWork unit = storage.beginUnitOfWork()) {
+            // check if product exists and the stock is enough, if so update stock
+            try {
+                product = storage.products().getProductByProdCod(prod_id);
 
-            if (product.getStock() < qty)   // not enough units?
-                throw new ApplicationException("Current stock is not enough to sell " + qty +
-                        " units of product " + product.getId());
+                // the stock is checked and updated by the database, or the inventory, in a single step
+                if (!decreaseStock(unit, product.getId(), qty))   // not enough units?
+                    throw new ApplicationException("Current stock is not enough to sell " + qty +
+                            " units of product " + product.getId());
 
-            // otherwise, update stock
-            product.setStock(product.getStock() - qty);
-            ProductMapper.updateStockValue(product.getId(), product.getStock());
+                product.setStock(inventory == null ? product.getStock() - qty : inventory.getStock(product.getId()));
+
+            } catch (PersistenceException e) {
+                throw new ApplicationException("Product " + prod_id + " does not exist!", e);
+            }
 
+            try {
+                int rentalProductId = storage.rentalLines().insert(rental.getId(), product.getId(), qty);  // add it to the database
+                // the rental may be shared, e.g. cached, so it changes only once an outer unit commits too
+                unit.afterCommit(() -> rental.addProductToRental(rentalProductId, product, qty));  // add it to the object rental
+                unit.commit();
+            } catch (PersistenceException e) {
+                throw new ApplicationException("Unable to add " + product.getProductCode() +
+                        " to sale id " + rental.getId(), e);
+            }
         } catch (PersistenceException e) {
-            throw new ApplicationException("Product " + prod_id + " does not exist!", e);
+            throw new ApplicationException("Unable to add " + prod_id + " to sale id " + rental.getId(), e);
         }
+    }
+
+    /**
+     * Add several products to an open rental at once. The stock of all products
+     * is checked and updated, and the rental products are inserted, with a
+     * fixed number of database round trips, committed once.
+     *
+     * @param rental The current rental (must be open)
+     * @param items  The quantity to rent (0 or 1) indexed by the product code (must exist)
+     * @throws ApplicationException If some of these assumptions does not hold, or if
+     *                              the stock of some product is not enough. In that case
+     *                              no product is added.
+     */
+    public void addProductsToRental(Rental rental, Map<Integer, Integer> items)
+            throws ApplicationException {
 
-        rental.addProductToRental(product, qty);  // add it to the object rental
+        if (!rental.isOpen())    // check if it's open
+            throw new ApplicationException("Rental " + rental.getId() + " is already closed!");
 
-        try {
-            RentalProductMapper.insert(rental.getId(), product.getId(), qty);  // add it to the database
+        for (Map.Entry<Integer, Integer> item : items.entrySet()) {
+            int qty = item.getValue();
+            if (qty < 0)
+                throw new ApplicationException("Negative amount (" + qty + " units of product " + item.getKey() + ") for rental" + rental.getId());
+            if (qty > 1)
+                throw new ApplicationException("Cannot rent more than one item of the same itemID at the same time");
+        }
+
+        try (UnitOfWork unit = storage.beginUnitOfWork()) {
+            // check if all products exist and their stock is enough
+            Map<Integer, ProductSpec> products = storage.products().getProductsByProdCods(items.keySet());
+
+            ProductSpec[] rented = new ProductSpec[items.size()];
+            int[] prod_ids = new int[items.size()];
+            int[] qtys = new int[items.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> item : items.entrySet()) {
+                ProductSpec product = products.get(item.getKey());
+                if (product == null)
+                    throw new ApplicationException("Product " + item.getKey() + " does not exist!");
+                if (currentStock(product) < item.getValue())   // not enough units?
+                    throw new ApplicationException("Current stock is not enough to sell " + item.getValue() +
+                            " units of product " + product.getId());
+                rented[i] = product;
+                prod_ids[i] = product.getId();
+                qtys[i] = item.getValue();
+                i++;
+            }
+
+            // the stock is checked again by the database, or the inventory, when it is updated
+            if (!decreaseStocks(unit, prod_ids, qtys))
+                throw new ApplicationException("Current stock is not enough to rent the products of rental " + rental.getId());
+
+            int[] rentalProductIds = storage.rentalLines().insertAll(rental.getId(), prod_ids, qtys);  // add them to the database
+            for (i = 0; i < rented.length; i++)
+                rented[i].setStock(inventory == null ? rented[i].getStock() - qtys[i] : currentStock(rented[i]));
+            // the rental may be shared, e.g. cached, so it changes only once an outer unit commits too
+            unit.afterCommit(() -> {
+                for (int j = 0; j < rented.length; j++)                // add them to the object rental
+                    rental.addProductToRental(rentalProductIds[j], rented[j], qtys[j]);
+            });
+            unit.commit();
         } catch (PersistenceException e) {
-            throw new ApplicationException("Unable to add " + product.getProductCode() +
+            throw new ApplicationException("Unable to add products " + items.keySet() +
                     " to sale id " + rental.getId(), e);
         }
     }
@@ -87,15 +215,97 @@ public class CatalogRental {
     public void returnProductFromRental(int prod_id, int qty) throws ApplicationException {
         ProductSpec product;
 
-        try {
-            product = ProductMapper.getProductByProdCod(prod_id);
-            product.setStock(product.getStock() + qty);
-            ProductMapper.updateStockValue(product.getId(), product.getStock());
+        try (UnitOfWork unit = storage.beginUnitOfWork()) {
+            product = storage.products().getProductByProdCod(prod_id);
+            if (inventory == null)
+                storage.products().increaseStock(product.getId(), qty);
+            else {    // once the unit of work is committed
+                int[] prod_ids = { product.getId() };
+                inventory.loadStocks(prod_ids);
+                unit.afterCommit(() -> inventory.giveBack(prod_ids, new int[] { qty }));
+            }
+            unit.commit();
         } catch (PersistenceException e) {
             throw new ApplicationException("Product " + prod_id + " does not exist!", e);
         }
     }
 
+    /**
+     * Return all the products of a rental and set it as returned. The stock of
+     * every product in the rental is restored with a single batch, in the same
+     * transaction that updates the rental's return status. The status is
+     * changed first, and only if the rental is not returned in the storage,
+     * so a rental loaded before it was returned is not restocked twice.
+     *
+     * @param rental The rental whose products are returned (must not be returned yet)
+     * @throws ApplicationException If the rental was already returned or the
+     *                              database cannot be updated
+     */
+    public void returnRental(Rental rental) throws ApplicationException {
+
+        if (rental.isReturned())
+            throw new ApplicationException("Rental " + rental.getId() + " was already returned!");
+
+        // the units to give back to each product of the rental
+        Map<Integer, Integer> units = new LinkedHashMap<Integer, Integer>();
+        for (RentalProduct rp : rental.getRentalProducts())
+            if (rp.getQty() > 0)
+                units.merge(rp.getProduct().getId(), rp.getQty(), Integer::sum);
+
+        int[] prod_ids = new int[units.size()];
+        int[] qtys = new int[units.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> unit : units.entrySet()) {
+            prod_ids[i] = unit.getKey();
+            qtys[i] = unit.getValue();
+            i++;
+        }
+
+        try (UnitOfWork unit = storage.beginUnitOfWork()) {
+            if (!storage.rentals().markReturned(rental.getId()))
+                throw new ApplicationException("Rental " + rental.getId() + " was already returned!");
+            if (prod_ids.length > 0 && inventory == null)
+                storage.products().increaseStocks(prod_ids, qtys);
+            if (prod_ids.length > 0 && inventory != null) {    // once the return is committed
+                inventory.loadStocks(prod_ids);
+                unit.afterCommit(() -> inventory.giveBack(prod_ids, qtys));
+            }
+            unit.commit();
+        } catch (PersistenceException e) {
+            throw new ApplicationException("Unable to return rental " + rental.getId(), e);
+        }
+        rental.returnItems();
+    }
+
+    /**
+     * Takes units of a product from the inventory, or from the storage if there is none.
+     * Units taken from the inventory are given back if the unit of work is rolled back.
+     */
+    private boolean decreaseStock(UnitOfWork unit, int prod_id, int qty) throws PersistenceException {
+        return decreaseStocks(unit, new int[] { prod_id }, new int[] { qty });
+    }
+
+    /**
+     * Takes units of several products from the inventory, or from the storage if there is none.
+     * Units taken from the inventory are given back if the unit of work is rolled back.
+     */
+    private boolean decreaseStocks(UnitOfWork unit, int[] prod_ids, int[] qtys) throws PersistenceException {
+        if (inventory == null)
+            return prod_ids.length == 1 ? storage.products().decreaseStock(prod_ids[0], qtys[0])
+                    : storage.products().decreaseStocks(prod_ids, qtys);
+        if (!inventory.reserveAll(prod_ids, qtys))
+            return false;
+        unit.afterRollback(() -> inventory.giveBack(prod_ids, qtys));
+        return true;
+    }
+
+    /**
+     * @return The stock of a product, as kept by the inventory if there is one
+     */
+    private int currentStock(ProductSpec product) throws PersistenceException {
+        return inventory == null ? product.getStock() : inventory.getStock(product.getId());
+    }
+
     /**
      * Close rental, updating the total and its status.
      * If the rental was already closed, nothing happens.
@@ -108,7 +318,7 @@ public class CatalogRental {
         if (rental.isOpen()) {
             try {
                 rental.close();
-                RentalMapper.update(rental.getId(), rental.total(), rental.getStatus());
+                storage.rentals().update(rental.getId(), rental.total(), rental.getStatus());
             } catch (PersistenceException e) {
                 throw new ApplicationException("Unable to close " + rental.getId() +
                         ", or unable to find it", e);
@@ -124,7 +334,7 @@ public class CatalogRental {
      */
     public void deleteRental(Rental rental) throws ApplicationException {
         try {
-            RentalMapper.delete(rental.getId());
+            storage.rentals().delete(rental.getId());
         } catch (PersistenceException e) {
             throw new ApplicationException("Unable to delete rental " + rental.getId(), e);
         }
@@ -139,7 +349,7 @@ public class CatalogRental {
      */
     public Rental getRental(int rental_id) throws ApplicationException {
         try {
-            return RentalMapper.getRentalById(rental_id);
+            return storage.rentals().getRentalById(rental_id);
         } catch (PersistenceException e) {
             throw new ApplicationException("Unable to retrieve rental " + rental_id, e);
         }
@@ -154,7 +364,7 @@ public class CatalogRental {
     public void setRentalAsReturned(Rental rental) throws ApplicationException {
         try {
             Byte rentalStatus = 1;
-            RentalMapper.updateRentalStatus(rental.getId(), rentalStatus);
+            storage.rentals().updateRentalStatus(rental.getId(), rentalStatus);
         } catch (PersistenceException e) {
             throw new ApplicationException("Unable to update rental " + rental.getId(), e);
         }
@@ -167,28 +377,98 @@ public class CatalogRental {
      * @throws ApplicationException
      */
     public List<Rental> getAllRentals() throws ApplicationException {
-        try {
-            return RentalMapper.getAllRentals();
-        } catch (PersistenceException e) {
-            throw new ApplicationException("Unable to retrieve all rental.", e);
-        }
+        return GET_ALL_RENTALS.time(() -> {
+            try {
+                return storage.rentals().getAllRentals();
+            } catch (PersistenceException e) {
+                throw new ApplicationException("Unable to retrieve all rental.", e);
+            }
+        });
     }
 
     /**
-     * String representation of all rentals (attention: might produce a quite large output)
+     * Gets a page of existing rentals, those with the smallest ids after a given one.
+     * To list all rentals, start with afterId 0 and pass the id of the last rental
+     * of each page to get the next one.
+     *
+     * @param afterId  the id after which the page starts
+     * @param pageSize the maximum number of rentals in the page
+     * @return a list of rentals ordered by id; a page smaller than pageSize is the last one
+     * @throws ApplicationException
      */
-    public String toString() {
-        try {
-            List<Rental> rentals = RentalMapper.getAllRentals();
-            StringBuffer sb = new StringBuffer();
+    public List<Rental> getRentals(int afterId, int pageSize) throws ApplicationException {
+        return GET_RENTALS.time(() -> {
+            try {
+                return storage.rentals().getRentalPage(afterId, pageSize);
+            } catch (PersistenceException e) {
+                throw new ApplicationException("Unable to retrieve rentals after " + afterId, e);
+            }
+        });
+    }
 
-            for (Rental rental : rentals) {
-                sb.append(rental);
-                sb.append("\n");
+    /**
+     * Gets the rentals whose items should have been returned before a given day
+     * and were not, with the penalty owed for each one at the start of that day.
+     * The penalties are the ones given by Rental.penalty, but only the overdue
+     * rentals are read from the database.
+     *
+     * @param asOf the day of reference
+     * @return the overdue rentals, the longest overdue first
+     * @throws ApplicationException
+     */
+    public List<OverdueRental> findOverdueRentals(LocalDate asOf) throws ApplicationException {
+        return FIND_OVERDUE_RENTALS.time(() -> {
+            try {
+                return storage.rentals().getOverdueRentals(asOf);
+            } catch (PersistenceException e) {
+                throw new ApplicationException("Unable to retrieve the rentals overdue on " + asOf, e);
             }
+        });
+    }
 
-            return sb.toString();
-        } catch (PersistenceException e) {
+    /**
+     * Writes all rentals, one per line, reading them from the database page by page,
+     * so that only one page of rentals is in memory at a time
+     *
+     * @param out      where the rentals are written to
+     * @param pageSize the number of rentals read from the database at a time
+     * @throws ApplicationException If the rentals cannot be read
+     * @throws IOException          If the rentals cannot be written
+     */
+    public void writeAllRentals(Writer out, int pageSize) throws ApplicationException, IOException {
+        List<Rental> page;
+        int lastId = 0;
+        do {
+            page = getRentals(lastId, pageSize);
+            for (Rental rental : page) {
+                out.write(rental.toString());
+                out.write("\n");
+                lastId = rental.getId();
+            }
+        } while (page.size() == pageSize);
+    }
+
+    /**
+     * Writes all rentals, one per line, reading DEFAULT_PAGE_SIZE rentals at a time
+     *
+     * @param out where the rentals are written to
+     * @throws ApplicationException If the rentals cannot be read
+     * @throws IOException          If the rentals cannot be written
+     */
+    public void writeAllRentals(Writer out) throws ApplicationException, IOException {
+        writeAllRentals(out, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * String representation of all rentals (attention: might produce a quite large output,
+     * use writeAllRentals to send it straight to its destination)
+     */
+    public String toString() {
+        try {
+            StringWriter sw = new StringWriter();
+            writeAllRentals(sw);
+            return sw.toString();
+        } catch (ApplicationException | IOException e) {
             System.out.println(e);
             return "N/A"; // something went wrong
         }
@@ -0,0 +1,279 @@
+package business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dataaccess.PersistenceException;
+import dataaccess.Storage;
+import dataaccess.UnitOfWork;
+
+/**
+ * Keeps the stock of the products in memory, so that renting a product does
+ * not need to check and update its row in the database.
+ *
+ * The stock of a product is read from the storage the first time it is
+ * reserved or released, or when loaded up front, and is then kept in a
+ * counter updated with compare-and-set: rentals of the same product never
+ * wait for each other or for the database, and fail right away when the
+ * stock is exhausted. The changes are added up per product and written to
+ * the storage later, a single update per product, either when reconcile is
+ * called or periodically by a background thread.
+ *
+ * While the engine is used, every change to the stock of its products must
+ * go through it; the stock in the storage is behind by the changes not
+ * reconciled yet.
+ *
+ * @author ADS08
+ */
+public class InventoryEngine implements AutoCloseable {
+
+    private final Storage storage;
+    private final ConcurrentHashMap<Integer, Stock> stocks = new ConcurrentHashMap<Integer, Stock>();
+    private ScheduledExecutorService reconciler;
+
+    /**
+     * Creates an engine for the products kept in a given storage, reconciled
+     * only when asked to
+     *
+     * @param storage Where the products are kept
+     */
+    public InventoryEngine(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Reconciles the stock with the storage periodically, in a background thread
+     *
+     * @param period How long to wait between reconciliations
+     * @param unit   The unit of the period
+     */
+    public synchronized void reconcileEvery(long period, TimeUnit unit) {
+        if (reconciler != null)
+            throw new IllegalStateException("The stock is already reconciled periodically");
+        reconciler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "inventory-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (PersistenceException e) {
+                // the changes are kept, and written in the next attempt
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Reads the stock of some products up front
+     *
+     * @param itemIDs The product codes of the products
+     * @throws PersistenceException If the products cannot be read
+     */
+    public void load(Collection<Integer> itemIDs) throws PersistenceException {
+        for (ProductSpec product : storage.products().getProductsByProdCods(itemIDs).values())
+            stocks.putIfAbsent(product.getId(), new Stock(product.getStock()));
+    }
+
+    /**
+     * @param prod_id The product id
+     * @return The stock of a product, including the changes not reconciled yet
+     * @throws PersistenceException If the product does not exist
+     */
+    public int getStock(int prod_id) throws PersistenceException {
+        return stock(prod_id).available.get();
+    }
+
+    /**
+     * Takes units of a product, if there are enough of them
+     *
+     * @param prod_id The product id
+     * @param qty     The number of units
+     * @return Whether the stock was enough, otherwise nothing is taken
+     * @throws PersistenceException If the product does not exist
+     */
+    public boolean reserve(int prod_id, int qty) throws PersistenceException {
+        Stock stock = stock(prod_id);
+        if (!stock.take(qty))
+            return false;
+        stock.unreconciled.addAndGet(-qty);
+        return true;
+    }
+
+    /**
+     * Takes units of several products, either all or none of them
+     *
+     * @param prod_ids The product ids
+     * @param qtys     The number of units of each product
+     * @return Whether the stock of every product was enough, otherwise nothing is taken
+     * @throws PersistenceException If some product does not exist
+     */
+    public boolean reserveAll(int[] prod_ids, int[] qtys) throws PersistenceException {
+        Stock[] found = new Stock[prod_ids.length];
+        for (int i = 0; i < prod_ids.length; i++)
+            found[i] = stock(prod_ids[i]);
+        for (int i = 0; i < found.length; i++)
+            if (!found[i].take(qtys[i])) {
+                for (int j = 0; j < i; j++)    // give back what was taken
+                    found[j].available.addAndGet(qtys[j]);
+                return false;
+            }
+        for (int i = 0; i < found.length; i++)
+            found[i].unreconciled.addAndGet(-qtys[i]);
+        return true;
+    }
+
+    /**
+     * Gives back units of a product
+     *
+     * @param prod_id The product id
+     * @param qty     The number of units
+     * @throws PersistenceException If the product does not exist
+     */
+    public void release(int prod_id, int qty) throws PersistenceException {
+        Stock stock = stock(prod_id);
+        stock.available.addAndGet(qty);
+        stock.unreconciled.addAndGet(qty);
+    }
+
+    /**
+     * Gives back units of several products
+     *
+     * @param prod_ids The product ids
+     * @param qtys     The number of units of each product
+     * @throws PersistenceException If some product does not exist
+     */
+    public void releaseAll(int[] prod_ids, int[] qtys) throws PersistenceException {
+        Stock[] found = new Stock[prod_ids.length];
+        for (int i = 0; i < prod_ids.length; i++)
+            found[i] = stock(prod_ids[i]);
+        for (int i = 0; i < found.length; i++) {
+            found[i].available.addAndGet(qtys[i]);
+            found[i].unreconciled.addAndGet(qtys[i]);
+        }
+    }
+
+    /**
+     * Reads the stock of some products now, if not kept yet, so that giveBack
+     * can later give units back to them without reading the storage
+     *
+     * @param prod_ids The product ids
+     * @throws PersistenceException If some product does not exist
+     */
+    void loadStocks(int[] prod_ids) throws PersistenceException {
+        for (int prod_id : prod_ids)
+            stock(prod_id);
+    }
+
+    /**
+     * Gives back units of several products whose stock is kept already, i.e.
+     * reserved or loaded with loadStocks before. It reads nothing, so it can run
+     * once a unit of work ends.
+     *
+     * @param prod_ids The product ids
+     * @param qtys     The number of units of each product
+     */
+    void giveBack(int[] prod_ids, int[] qtys) {
+        for (int i = 0; i < prod_ids.length; i++) {
+            Stock stock = stocks.get(prod_ids[i]);
+            stock.available.addAndGet(qtys[i]);
+            stock.unreconciled.addAndGet(qtys[i]);
+        }
+    }
+
+    /**
+     * Writes the changes to the stock made since the last reconciliation to
+     * the storage, in a single unit of work. If it fails, the changes are kept
+     * for the next one.
+     *
+     * @throws PersistenceException If the storage cannot be updated
+     */
+    public synchronized void reconcile() throws PersistenceException {
+        List<Integer> changed = new ArrayList<Integer>();
+        List<Integer> deltas = new ArrayList<Integer>();
+        for (Map.Entry<Integer, Stock> entry : stocks.entrySet()) {
+            int delta = entry.getValue().unreconciled.getAndSet(0);
+            if (delta != 0) {
+                changed.add(entry.getKey());
+                deltas.add(delta);
+            }
+        }
+        if (changed.isEmpty())
+            return;
+
+        int[] prod_ids = new int[changed.size()];
+        int[] qtys = new int[changed.size()];
+        for (int i = 0; i < prod_ids.length; i++) {
+            prod_ids[i] = changed.get(i);
+            qtys[i] = deltas.get(i);
+        }
+        try (UnitOfWork unit = storage.beginUnitOfWork()) {
+            storage.products().increaseStocks(prod_ids, qtys);
+            unit.commit();
+        } catch (PersistenceException e) {
+            for (int i = 0; i < prod_ids.length; i++)
+                stocks.get(prod_ids[i]).unreconciled.addAndGet(qtys[i]);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops reconciling periodically, and reconciles the changes left
+     *
+     * @throws PersistenceException If the storage cannot be updated
+     */
+    @Override
+    public void close() throws PersistenceException {
+        synchronized (this) {
+            if (reconciler != null) {
+                reconciler.shutdown();
+                reconciler = null;
+            }
+        }
+        reconcile();
+    }
+
+    /**
+     * @return The stock of a product, read from the storage the first time
+     */
+    private Stock stock(int prod_id) throws PersistenceException {
+        Stock stock = stocks.get(prod_id);
+        if (stock == null) {
+            Stock loaded = new Stock(storage.products().getProductById(prod_id).getStock());
+            stock = stocks.putIfAbsent(prod_id, loaded);
+            if (stock == null)
+                stock = loaded;
+        }
+        return stock;
+    }
+
+    /**
+     * The units of a product available to rent, and how much they changed
+     * since the last reconciliation
+     */
+    private static final class Stock {
+        final AtomicInteger available;
+        final AtomicInteger unreconciled = new AtomicInteger();
+
+        Stock(int available) {
+            this.available = new AtomicInteger(available);
+        }
+
+        boolean take(int qty) {
+            int current;
+            do {
+                current = available.get();
+                if (current < qty)
+                    return false;
+            } while (!available.compareAndSet(current, current - qty));
+            return true;
+        }
+    }
+}
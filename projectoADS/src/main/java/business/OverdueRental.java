@@ -0,0 +1,91 @@
+package business;
+
+import java.util.Date;
+
+/**
+ * Summary of a rental whose items were not returned by its return date,
+ * together with the penalty owed for it. Unlike Rental, it does not carry
+ * the rental products.
+ *
+ * @author ADS08
+ */
+public class OverdueRental {
+
+    private final int rentalId;
+    private final Date date;
+    private final Date returnDate;
+    private final int items;
+    private final boolean pastHardLimit;
+    private final double penalty;
+
+    /**
+     * Creates the summary of an overdue rental
+     *
+     * @param rentalId      The id of the rental
+     * @param date          The date the rental occurred
+     * @param returnDate    The date the rental items should have been returned
+     * @param items         The number of units rented
+     * @param pastHardLimit Whether the rental is more than 7 days late
+     * @param penalty       The penalty owed for the rental
+     */
+    public OverdueRental(int rentalId, Date date, Date returnDate, int items, boolean pastHardLimit, double penalty) {
+        this.rentalId = rentalId;
+        this.date = date;
+        this.returnDate = returnDate;
+        this.items = items;
+        this.pastHardLimit = pastHardLimit;
+        this.penalty = penalty;
+    }
+
+    /**
+     * @return The id of the rental
+     */
+    public int getRentalId() {
+        return rentalId;
+    }
+
+    /**
+     * @return The date the rental occurred
+     */
+    public Date getDate() {
+        return date;
+    }
+
+    /**
+     * @return The date the rental items should have been returned
+     */
+    public Date getReturnDate() {
+        return returnDate;
+    }
+
+    /**
+     * @return The number of units rented
+     */
+    public int getItems() {
+        return items;
+    }
+
+    /**
+     * @return Whether the rental is more than 7 days late, in which case the
+     * penalty is the full price of the products minus what was paid for the rental
+     */
+    public boolean isPastHardLimit() {
+        return pastHardLimit;
+    }
+
+    /**
+     * @return The penalty owed for the rental
+     */
+    public double getPenalty() {
+        return penalty;
+    }
+
+    /**
+     * @return A string with the representation of the overdue rental.
+     */
+    @Override
+    public String toString() {
+        return "Rental " + rentalId + " @ " + date + "; due " + returnDate + "; " + items + " units; "
+                + (pastHardLimit ? "past hard limit" : "late") + "; penalty of €" + penalty;
+    }
+}
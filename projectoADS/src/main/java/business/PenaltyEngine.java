@@ -0,0 +1,183 @@
+package business;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the penalties of many rentals at once.
+ *
+ * The rentals are read once, when the engine is created: for each one it keeps
+ * its return date, its hard limit (7 days later) and the penalty owed before
+ * and after the hard limit, as epoch milliseconds and doubles in flat arrays.
+ * Computing the penalties at a given moment is then a comparison per rental,
+ * with no Calendar, Date or list traversal involved, so the same engine can be
+ * asked for the penalties at several moments cheaply.
+ *
+ * Large batches are split across the available cores. The penalties are the
+ * same as the ones given by Rental.penalty, since they are added up line by
+ * line in the same order and with the same expressions.
+ *
+ * @author ADS08
+ */
+public class PenaltyEngine {
+
+    // batches smaller than this are not worth splitting across cores
+    public static final int PARALLEL_THRESHOLD = 10000;
+
+    private final int[] rentalIds;
+    private final long[] returnDates;
+    private final long[] hardLimits;
+    private final double[] softPenalties;
+    private final double[] hardPenalties;
+
+    /**
+     * Creates an engine for the given rentals, reading their products and dates
+     *
+     * @param rentals The rentals whose penalties are computed
+     */
+    public PenaltyEngine(Collection<Rental> rentals) {
+        Rental[] batch = rentals.toArray(new Rental[rentals.size()]);
+        int size = batch.length;
+        ZoneId zone = ZoneId.systemDefault();
+        rentalIds = new int[size];
+        returnDates = new long[size];
+        hardLimits = new long[size];
+        softPenalties = new double[size];
+        hardPenalties = new double[size];
+        indexes(size).forEach(i -> load(i, batch[i], zone));
+    }
+
+    /**
+     * Fills the position of a rental in the arrays
+     */
+    private void load(int i, Rental rental, ZoneId zone) {
+        long returnDate = rental.getReturnDate().getTime();
+        rentalIds[i] = rental.getId();
+        returnDates[i] = returnDate;
+        // same as adding 7 days of the year in the default calendar
+        hardLimits[i] = Instant.ofEpochMilli(returnDate).atZone(zone).plusDays(7).toInstant().toEpochMilli();
+
+        double soft = 0.0;
+        double hard = 0.0;
+        List<RentalProduct> products = rental.getRentalProducts();
+        for (RentalProduct rp : products) {
+            double subTotal = rp.getSubTotal();
+            soft += subTotal * 0.5;
+            hard += rp.getProduct().getPrice() * rp.getQty() - subTotal;
+        }
+        softPenalties[i] = soft;
+        hardPenalties[i] = hard;
+    }
+
+    /**
+     * @return The number of rentals in the engine
+     */
+    public int size() {
+        return rentalIds.length;
+    }
+
+    /**
+     * Computes the penalty of every rental at a given moment
+     *
+     * @param now The moment of reference
+     * @return The penalty of each rental, in the order the rentals were given, and their total
+     */
+    public Penalties penalties(Date now) {
+        return penalties(now.getTime());
+    }
+
+    /**
+     * Computes the penalty of every rental at a given moment
+     *
+     * @param now The moment of reference, in milliseconds since the epoch
+     * @return The penalty of each rental, in the order the rentals were given, and their total
+     */
+    public Penalties penalties(long now) {
+        int size = size();
+        double[] penalties = new double[size];
+        indexes(size).forEach(i -> penalties[i] = penalty(i, now));
+
+        // added up in order, so that the total does not depend on how the work was split
+        double total = 0.0;
+        int overdue = 0;
+        for (double penalty : penalties) {
+            total += penalty;
+            if (penalty > 0)
+                overdue++;
+        }
+        return new Penalties(rentalIds, penalties, total, overdue);
+    }
+
+    /**
+     * @return The penalty of the rental at position i, as given by Rental.penalty
+     */
+    private double penalty(int i, long now) {
+        if (now <= returnDates[i])
+            return 0.0;
+        return now > hardLimits[i] ? hardPenalties[i] : softPenalties[i];
+    }
+
+    private static IntStream indexes(int size) {
+        IntStream indexes = IntStream.range(0, size);
+        return size < PARALLEL_THRESHOLD ? indexes : indexes.parallel();
+    }
+
+    /**
+     * The penalties of the rentals of an engine at a given moment
+     */
+    public static class Penalties {
+
+        private final int[] rentalIds;
+        private final double[] penalties;
+        private final double total;
+        private final int overdue;
+
+        private Penalties(int[] rentalIds, double[] penalties, double total, int overdue) {
+            this.rentalIds = rentalIds;
+            this.penalties = penalties;
+            this.total = total;
+            this.overdue = overdue;
+        }
+
+        /**
+         * @return The number of rentals
+         */
+        public int size() {
+            return penalties.length;
+        }
+
+        /**
+         * @param index The position of the rental in the batch
+         * @return The id of the rental
+         */
+        public int getRentalId(int index) {
+            return rentalIds[index];
+        }
+
+        /**
+         * @param index The position of the rental in the batch
+         * @return The penalty of the rental
+         */
+        public double getPenalty(int index) {
+            return penalties[index];
+        }
+
+        /**
+         * @return The sum of the penalties of all rentals
+         */
+        public double getTotal() {
+            return total;
+        }
+
+        /**
+         * @return The number of rentals with a penalty to pay
+         */
+        public int getOverdueCount() {
+            return overdue;
+        }
+    }
+}
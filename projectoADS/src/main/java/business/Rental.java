@@ -15,6 +15,7 @@ public class Rental {
     private String status;
     private byte returnStatus;
     private List<RentalProduct> rentalProducts;
+    private double total;
 
     public static final String OPEN = "O";
     public static final String CLOSED = "C";
@@ -28,11 +29,22 @@ public class Rental {
      * @param date The date that the rental occurred
      */
     public Rental(int id, Date date, Date returnDate) {
+        this(id, date, returnDate, 10);
+    }
+
+    /**
+     * Creates a rental whose number of rental products is known, e.g. one
+     * loaded from the database, with room for exactly that many
+     *
+     * @param date  The date that the rental occurred
+     * @param lines The number of rental products the rental will have
+     */
+    public Rental(int id, Date date, Date returnDate, int lines) {
         this.id = id;
         this.date = date;
         this.returnDate = returnDate;
         this.status = OPEN;
-        this.rentalProducts = new LinkedList<RentalProduct>();
+        this.rentalProducts = new ArrayList<RentalProduct>(lines);
         this.returnStatus = WAITING;
     }
 
@@ -58,12 +70,13 @@ public class Rental {
     }
 
     /**
-     * Gets all the rental products from the rental object
+     * Gets all the rental products from the rental object. Products are added to
+     * the rental with addProductToRental, the list cannot be changed directly.
      *
      * @return A list of RentalProducts
      */
     public List<RentalProduct> getRentalProducts() {
-        return rentalProducts;
+        return Collections.unmodifiableList(rentalProducts);
     }
 
     /**
@@ -123,12 +136,9 @@ public class Rental {
     }
 
     /**
-     * @return The rental's total
+     * @return The rental's total, kept up to date as products are added
      */
     public double total() {
-        double total = 0.0;
-        for (RentalProduct rp : rentalProducts)
-            total += rp.getSubTotal();
         return total;
     }
 
@@ -165,7 +175,26 @@ public class Rental {
      * @requires qty >= 0 (zero is useful for database tests)
      */
     public void addProductToRental(ProductSpec product, int qty) {
-        rentalProducts.add(new RentalProduct(product, qty));
+        addRentalProduct(new RentalProduct(product, qty));
+    }
+
+    /**
+     * Adds a product that is already stored as a rental product to the rental
+     *
+     * @param rentalProductId The database id of the rental product
+     * @param product         The product to rent
+     * @param qty             The amount of the product being rented
+     * @requires qty >= 0
+     */
+    public void addProductToRental(int rentalProductId, ProductSpec product, int qty) {
+        RentalProduct rentalProduct = new RentalProduct(product, qty);
+        rentalProduct.setId(rentalProductId);
+        addRentalProduct(rentalProduct);
+    }
+
+    private void addRentalProduct(RentalProduct rentalProduct) {
+        rentalProducts.add(rentalProduct);
+        total += rentalProduct.getSubTotal();
     }
 
     /**
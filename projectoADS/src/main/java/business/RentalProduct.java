@@ -32,7 +32,7 @@ public class RentalProduct {
     /**
      * @return The quantity of the product rental
      */
-    public double getQty() {
+    public int getQty() {
         return qty;
     }
 
@@ -1,7 +1,15 @@
 package business;
 
+import dataaccess.CacheMetrics;
 import dataaccess.DataSource;
 import dataaccess.PersistenceException;
+import dbutils.SchemaMigrator;
+import metrics.Metrics;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Includes operations regarding Rentals
@@ -11,7 +19,8 @@ import dataaccess.PersistenceException;
 public class RentalSys {
 
     /**
-     * Starts a connection with the database
+     * Starts a connection with the database, brings its schema up to date and
+     * publishes the metrics of the application through JMX
      *
      * @throws ApplicationException
      */
@@ -22,12 +31,39 @@ public class RentalSys {
         } catch (PersistenceException e) {
             throw new ApplicationException("Error connecting database", e);
         }
+
+        // Applies the schema migrations not applied yet
+        try {
+            new SchemaMigrator().migrate(DataSource.INSTANCE.getConnection());
+        } catch (PersistenceException | IOException | SQLException e) {
+            throw new ApplicationException("Error migrating database schema", e);
+        } finally {
+            DataSource.INSTANCE.releaseConnection();
+        }
+
+        // Publishes the metrics of the use cases, SQL statements and caches through JMX
+        Metrics.addMBean("Cache", "caches", new CacheMetrics());
+        Metrics.registerMBeans();
+    }
+
+    /**
+     * Writes the metrics periodically, until the application stops
+     *
+     * @param out    Where to write them
+     * @param period How long to wait between reports
+     * @param unit   The unit of the period
+     */
+    public void reportMetrics(PrintStream out, long period, TimeUnit unit) {
+        Metrics.startReport(out, period, unit);
     }
 
     /**
      * Closes the database connection
      */
     public void stop() {
+        Metrics.stopReport();
+        Metrics.unregisterMBeans();
+
         // Closes the database connection
         DataSource.INSTANCE.close();
     }
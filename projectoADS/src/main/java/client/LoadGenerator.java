@@ -0,0 +1,346 @@
+package client;
+
+import business.*;
+import dataaccess.DatabaseStorage;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import use_cases.HandlerProcessRental;
+import use_cases.HandlerProcessReturnRentedItems;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A capacity test of the whole application: worker threads run a mix of the
+ * rental use cases through the handlers, against the database, for a fixed
+ * time, and the throughput and latency percentiles of each operation are
+ * reported at the end.
+ *
+ * Each worker keeps an open rental, adding products to it until it closes
+ * it, and returns the rentals it closed, oldest first, so the stock keeps
+ * flowing back. An operation that does not apply to the worker's state,
+ * e.g. closing a rental when it has none open, starts a new rental instead.
+ * Rentals still closed at the end are returned, outside the measurements.
+ *
+ * Usage: LoadGenerator [--threads 8] [--duration 30] [--warmup 5]
+ *                      [--mix new=1,add=3,close=1,return=1,get=4]
+ *                      [--items 101,102,103,104,105,106] [--inventory] [--metrics]
+ *
+ * Durations are in seconds. --inventory keeps the stock in an InventoryEngine,
+ * and --metrics also prints the metrics of the use cases and SQL statements.
+ *
+ * @author ADS08
+ */
+public class LoadGenerator {
+
+    /**
+     * The operations of the mix
+     */
+    enum Operation {
+        NEW("new"), ADD("add"), CLOSE("close"), RETURN("return"), GET("get");
+
+        final String key;
+
+        Operation(String key) {
+            this.key = key;
+        }
+    }
+
+    private final int threads;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final Operation[] mix;       // each operation repeated by its weight
+    private final int[] items;
+
+    private final Map<Operation, LatencyHistogram> latencies = new LinkedHashMap<Operation, LatencyHistogram>();
+    private final Map<Operation, LongAdder> failures = new LinkedHashMap<Operation, LongAdder>();
+
+    // whether the operations are measured, which they are after the warmup
+    private volatile boolean measuring;
+
+    LoadGenerator(int threads, long duration, long warmup, Map<Operation, Integer> weights, int[] items) {
+        if (threads < 1 || duration < 1 || warmup < 0 || items.length == 0)
+            throw new IllegalArgumentException("Invalid load: " + threads + " threads, " + duration + " s, "
+                    + warmup + " s of warmup, " + items.length + " items");
+        this.threads = threads;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(duration);
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmup);
+        this.items = items;
+        List<Operation> operations = new ArrayList<Operation>();
+        for (Map.Entry<Operation, Integer> weight : weights.entrySet())
+            for (int i = 0; i < weight.getValue(); i++)
+                operations.add(weight.getKey());
+        if (operations.isEmpty())
+            throw new IllegalArgumentException("Empty operation mix");
+        this.mix = operations.toArray(new Operation[operations.size()]);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            failures.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * Runs the workers for the warmup and the duration, and prints the report
+     *
+     * @param rentalCatalog The catalog the handlers of the workers work on
+     */
+    void run(CatalogRental rentalCatalog) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(rentalCatalog, end);
+            Thread thread = new Thread(() -> {
+                try {
+                    worker.run();
+                } finally {
+                    done.countDown();
+                }
+            }, "load-worker-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        TimeUnit.NANOSECONDS.sleep(measureFrom - System.nanoTime());
+        measuring = true;
+        Metrics.reset();
+        long measuredFrom = System.nanoTime();
+        done.await();
+        report((end - measuredFrom) / 1e9);     // the rentals given back at the end are not measured
+    }
+
+    private void record(Operation operation, long nanos, boolean failed) {
+        if (!measuring)
+            return;
+        latencies.get(operation).record(nanos);
+        if (failed)
+            failures.get(operation).increment();
+    }
+
+    private void report(double seconds) {
+        System.out.println(String.format(Locale.ROOT, "%d threads, %.1f s measured", threads, seconds));
+        System.out.println(String.format(Locale.ROOT, "%-8s %10s %8s %10s %9s %9s %9s %9s %9s",
+                "op", "count", "failed", "ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            long count = histogram.getCount();
+            total += count;
+            System.out.println(String.format(Locale.ROOT, "%-8s %10d %8d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f",
+                    operation.key, count, failures.get(operation).sum(), count / seconds,
+                    histogram.getMean(TimeUnit.MILLISECONDS),
+                    histogram.getPercentile(50, TimeUnit.MILLISECONDS),
+                    histogram.getPercentile(90, TimeUnit.MILLISECONDS),
+                    histogram.getPercentile(99, TimeUnit.MILLISECONDS),
+                    histogram.getMax(TimeUnit.MILLISECONDS)));
+        }
+        System.out.println(String.format(Locale.ROOT, "%-8s %10d %8s %10.1f", "total", total, "", total / seconds));
+    }
+
+    /**
+     * A thread of the load, with its own rentals
+     */
+    private final class Worker {
+        private final HandlerProcessRental hpr;
+        private final HandlerProcessReturnRentedItems hprri;
+        private final long end;
+
+        private Rental open;
+        private final Deque<Rental> closed = new ArrayDeque<Rental>();
+        private final List<Integer> known = new ArrayList<Integer>();
+
+        Worker(CatalogRental rentalCatalog, long end) {
+            this.hpr = new HandlerProcessRental(rentalCatalog);
+            this.hprri = new HandlerProcessReturnRentedItems(rentalCatalog);
+            this.end = end;
+        }
+
+        void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.nanoTime() < end) {
+                Operation operation = mix[random.nextInt(mix.length)];
+                if (operation != Operation.NEW && open == null
+                        && !(operation == Operation.RETURN && !closed.isEmpty())
+                        && !(operation == Operation.GET && !known.isEmpty()))
+                    operation = Operation.NEW;
+                if (operation == Operation.RETURN && closed.isEmpty())
+                    operation = Operation.CLOSE;
+
+                long start = System.nanoTime();
+                boolean failed = false;
+                try {
+                    run(operation, random);
+                } catch (ApplicationException e) {
+                    failed = true;
+                }
+                record(operation, System.nanoTime() - start, failed);
+            }
+            giveBack();
+        }
+
+        private void run(Operation operation, ThreadLocalRandom random) throws ApplicationException {
+            switch (operation) {
+                case NEW:
+                    Calendar returnDate = Calendar.getInstance();
+                    returnDate.add(Calendar.DAY_OF_YEAR, 1 + random.nextInt(14));
+                    Rental created = hpr.newRental(returnDate.getTime());
+                    if (open != null)
+                        closed.add(open);    // it is closed later, when it is returned
+                    open = created;
+                    known.add(open.getId());
+                    break;
+                case ADD:
+                    hpr.addProductToRental(open, items[random.nextInt(items.length)], 1);
+                    break;
+                case CLOSE:
+                    Rental closing = open;
+                    open = null;
+                    hpr.closeRental(closing);
+                    closed.add(closing);
+                    break;
+                case RETURN:
+                    Rental returning = closed.poll();
+                    hpr.closeRental(returning);
+                    hprri.returnRental(returning);
+                    break;
+                case GET:
+                    hprri.getRental(known.get(random.nextInt(known.size())));
+                    break;
+            }
+        }
+
+        /**
+         * Returns the rentals of the worker, so that their stock is available again
+         */
+        private void giveBack() {
+            if (open != null)
+                closed.add(open);
+            for (Rental rental : closed)
+                try {
+                    hpr.closeRental(rental);
+                    hprri.returnRental(rental);
+                } catch (ApplicationException e) {
+                    // its stock stays rented
+                }
+        }
+    }
+
+    /**
+     * Runs the load against the database
+     *
+     * @param args Command line parameters, as in the class description
+     */
+    public static void main(String[] args) {
+        int threads = 8;
+        long duration = 30;
+        long warmup = 5;
+        String mix = "new=1,add=3,close=1,return=1,get=4";
+        String items = "101,102,103,104,105,106";
+        boolean inventory = false;
+        boolean metrics = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--duration":
+                        duration = Long.parseLong(args[++i]);
+                        break;
+                    case "--warmup":
+                        warmup = Long.parseLong(args[++i]);
+                        break;
+                    case "--mix":
+                        mix = args[++i];
+                        break;
+                    case "--items":
+                        items = args[++i];
+                        break;
+                    case "--inventory":
+                        inventory = true;
+                        break;
+                    case "--metrics":
+                        metrics = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.out.println("Usage: LoadGenerator [--threads n] [--duration s] [--warmup s] [--mix new=1,add=3,...]"
+                    + " [--items 101,102,...] [--inventory] [--metrics]");
+            return;
+        }
+
+        LoadGenerator load;
+        try {
+            load = new LoadGenerator(threads, duration, warmup, parseMix(mix), parseItems(items));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            return;
+        }
+
+        RentalSys app = new RentalSys();
+        try {
+            app.start();
+        } catch (ApplicationException e) {
+            System.out.println("Error: " + e.getMessage());
+            return;
+        }
+
+        InventoryEngine engine = inventory ? new InventoryEngine(DatabaseStorage.INSTANCE) : null;
+        try {
+            if (engine != null)
+                engine.reconcileEvery(1, TimeUnit.SECONDS);
+            load.run(new CatalogRental(DatabaseStorage.INSTANCE, engine));
+            if (engine != null)
+                engine.close();
+            if (metrics)
+                Metrics.report(System.out);
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        app.stop();
+    }
+
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new LinkedHashMap<Operation, Integer>();
+        for (String entry : mix.split(",")) {
+            String[] weight = entry.trim().split("=");
+            Operation operation = null;
+            for (Operation candidate : Operation.values())
+                if (candidate.key.equals(weight[0].trim()))
+                    operation = candidate;
+            if (operation == null || weight.length != 2)
+                throw new IllegalArgumentException("Invalid mix entry " + entry);
+            int value = Integer.parseInt(weight[1].trim());
+            if (value < 0)
+                throw new IllegalArgumentException("Negative weight in " + entry);
+            weights.put(operation, value);
+        }
+        return weights;
+    }
+
+    static int[] parseItems(String items) {
+        String[] codes = items.split(",");
+        int[] parsed = new int[codes.length];
+        for (int i = 0; i < codes.length; i++)
+            parsed[i] = Integer.parseInt(codes[i].trim());
+        return parsed;
+    }
+}
@@ -1,10 +1,11 @@
 package client;
 
 import business.*;
-import dataaccess.PersistenceException;
 import use_cases.HandlerProcessRental;
 import use_cases.HandlerProcessReturnRentedItems;
 
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -91,7 +92,9 @@ public class RentalClient {
 
             System.out.println("\n-- Print all rentals ----------------------------------");
 
-            System.out.println(rentalCatalog);
+            PrintWriter out = new PrintWriter(System.out);
+            rentalCatalog.writeAllRentals(out);
+            out.flush();
 
             //////////////////
 
@@ -108,10 +111,7 @@ public class RentalClient {
             DateFormat dateFormat = new SimpleDateFormat("y-M-d");
             Date clientReturnDate = dateFormat.parse(clientReturnDateStr);
 
-            hprri.returnProductFromRental(101, 1);
-            hprri.returnProductFromRental(102,1);
-
-            hprri.setRentalAsReturned(rental);
+            hprri.returnRental(rental);
 
             System.out.println("Penalty fee: " + rental.penalty(clientReturnDate) + "€");
 
@@ -126,12 +126,13 @@ public class RentalClient {
 
             System.out.println("\n-- Print all rentals after delete ---------------------");
 
-            System.out.println(rentalCatalog);
+            rentalCatalog.writeAllRentals(out);
+            out.flush();
 
 
 
 
-        } catch (ApplicationException | java.text.ParseException | PersistenceException e) {
+        } catch (ApplicationException | java.text.ParseException | IOException e) {
             System.out.println("Error: " + e.getMessage());
             // for debugging purposes only. Typically, in the application this information
             // can be associated with a "details" button when the error message is displayed.
@@ -0,0 +1,61 @@
+package dataaccess;
+
+import java.util.Map;
+
+/**
+ * A cache of objects loaded from the database, used by the mappers to
+ * avoid querying the database for objects they have already loaded.
+ *
+ * Implementations must be safe to use from several threads at the same time
+ * and are expected to bound the memory they use.
+ *
+ * @param <K> The type of the keys (usually the database id)
+ * @param <V> The type of the cached objects
+ *
+ * @author ADS08
+ */
+public interface Cache<K, V> {
+
+    /**
+     * @param key The key of the object
+     * @return The cached object, or null if it is not in the cache
+     */
+    V get(K key);
+
+    /**
+     * Adds an object to the cache, possibly evicting others
+     *
+     * @param key   The key of the object
+     * @param value The object to cache
+     */
+    void put(K key, V value);
+
+    /**
+     * Adds several objects to the cache
+     *
+     * @param entries The objects to cache, indexed by key
+     */
+    void putAll(Map<? extends K, ? extends V> entries);
+
+    /**
+     * Removes an object from the cache, if present
+     *
+     * @param key The key of the object
+     */
+    void remove(K key);
+
+    /**
+     * Removes every object from the cache
+     */
+    void clear();
+
+    /**
+     * @return The number of objects in the cache
+     */
+    int size();
+
+    /**
+     * @return The hit, miss and eviction counters of the cache
+     */
+    CacheStats getStats();
+}
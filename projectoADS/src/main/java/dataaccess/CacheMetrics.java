@@ -0,0 +1,54 @@
+package dataaccess;
+
+/**
+ * Publishes the counters of the rental cache and of the prepared statement
+ * caches, read each time they are asked for
+ *
+ * @author ADS08
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+
+    @Override
+    public long getRentalCacheHits() {
+        return RentalMapper.getCacheStats().getHits();
+    }
+
+    @Override
+    public long getRentalCacheMisses() {
+        return RentalMapper.getCacheStats().getMisses();
+    }
+
+    @Override
+    public long getRentalCacheEvictions() {
+        return RentalMapper.getCacheStats().getEvictions();
+    }
+
+    @Override
+    public double getRentalCacheHitRate() {
+        return RentalMapper.getCacheStats().hitRate();
+    }
+
+    @Override
+    public long getStatementCacheHits() {
+        return DataSource.INSTANCE.getStatementCacheHits();
+    }
+
+    @Override
+    public long getStatementCacheMisses() {
+        return DataSource.INSTANCE.getStatementCacheMisses();
+    }
+
+    @Override
+    public double getStatementCacheHitRate() {
+        return new CacheStats(getStatementCacheHits(), getStatementCacheMisses(), 0).hitRate();
+    }
+
+    /**
+     * @return The counters of the caches, as written in the text reports
+     */
+    @Override
+    public String toString() {
+        return "rentals: " + RentalMapper.getCacheStats() + "; statements: "
+                + new CacheStats(getStatementCacheHits(), getStatementCacheMisses(), 0);
+    }
+}
@@ -0,0 +1,23 @@
+package dataaccess;
+
+/**
+ * The counters of the caches of the data access layer, as published through JMX
+ *
+ * @author ADS08
+ */
+public interface CacheMetricsMBean {
+
+    long getRentalCacheHits();
+
+    long getRentalCacheMisses();
+
+    long getRentalCacheEvictions();
+
+    double getRentalCacheHitRate();
+
+    long getStatementCacheHits();
+
+    long getStatementCacheMisses();
+
+    double getStatementCacheHitRate();
+}
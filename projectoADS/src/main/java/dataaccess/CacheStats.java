@@ -0,0 +1,62 @@
+package dataaccess;
+
+/**
+ * A snapshot of the counters of a cache
+ *
+ * @author ADS08
+ */
+public class CacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    /**
+     * @param hits      The number of lookups that found the object
+     * @param misses    The number of lookups that did not find the object
+     * @param evictions The number of objects dropped to respect the cache bounds
+     */
+    public CacheStats(long hits, long misses, long evictions) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * @return The number of lookups that found the object
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups that did not find the object
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of objects dropped because the cache was full or they expired
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The fraction of lookups that found the object (zero if there were none)
+     */
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return A string with the counters
+     */
+    @Override
+    public String toString() {
+        return "hits " + hits + ", misses " + misses + ", evictions " + evictions
+                + " (hit rate " + Math.round(hitRate() * 100) + "%)";
+    }
+}
@@ -0,0 +1,61 @@
+package dataaccess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The actions registered with a unit of work, and the units that joined it,
+ * to run once it ends, depending on whether it was committed
+ *
+ * @author ADS08
+ */
+final class CompletionActions {
+
+    private final List<Runnable> afterCommit = new ArrayList<Runnable>();
+    private final List<Runnable> afterRollback = new ArrayList<Runnable>();
+
+    void afterCommit(Runnable action) {
+        afterCommit.add(action);
+    }
+
+    void afterRollback(Runnable action) {
+        afterRollback.add(action);
+    }
+
+    /**
+     * Runs the actions registered to run after a commit, in the order they were registered
+     */
+    void committed() {
+        run(new ArrayList<Runnable>(afterCommit));
+    }
+
+    /**
+     * Runs the actions registered to run after a rollback, the last registered first
+     */
+    void rolledBack() {
+        List<Runnable> actions = new ArrayList<Runnable>(afterRollback);
+        Collections.reverse(actions);
+        run(actions);
+    }
+
+    /**
+     * Runs every action, even if some of them fail, and then throws the first failure
+     */
+    private void run(List<Runnable> actions) {
+        afterCommit.clear();
+        afterRollback.clear();
+        RuntimeException failure = null;
+        for (Runnable action : actions)
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -0,0 +1,188 @@
+package dataaccess;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of database connections used by the DataSource.
+ *
+ * The pool keeps at least minSize connections open and never hands out more
+ * than maxSize at the same time. Threads asking for a connection when all are
+ * in use wait up to the acquire timeout. Idle connections are validated before
+ * being handed out again and replaced when they are no longer usable. Each
+ * connection carries its own cache of prepared statements.
+ *
+ * @author ADS08
+ */
+class ConnectionPool {
+
+	// seconds given to the driver to validate a connection on borrow
+	private static final int VALIDATION_TIMEOUT = 2;
+
+	private final String url;
+	private final String username;
+	private final String password;
+	private final int maxSize;
+	private final long acquireTimeoutMillis;
+	private final int statementCacheSize;
+
+	// statement cache counters, shared by all connections
+	private final AtomicLong statementHits = new AtomicLong();
+	private final AtomicLong statementMisses = new AtomicLong();
+
+	// connections that are open but not lent to any thread
+	private final LinkedBlockingDeque<PooledConnection> idle;
+
+	// one permit per connection that can still be lent
+	private final Semaphore permits;
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates a pool and opens its first minSize connections.
+	 *
+	 * @param url The database connection URL
+	 * @param username The username to login into the database
+	 * @param password The user's password
+	 * @param minSize The number of connections opened upfront
+	 * @param maxSize The maximum number of connections lent at the same time
+	 * @param acquireTimeoutMillis How long a thread waits for a free connection
+	 * @param statementCacheSize The number of prepared statements cached per connection
+	 * @throws SQLException In case one of the initial connections fails to establish
+	 */
+	ConnectionPool(String url, String username, String password,
+			int minSize, int maxSize, long acquireTimeoutMillis, int statementCacheSize) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException("Invalid pool bounds [" + minSize + ", " + maxSize + "]");
+		if (statementCacheSize < 0)
+			throw new IllegalArgumentException("Invalid statement cache size " + statementCacheSize);
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.maxSize = maxSize;
+		this.acquireTimeoutMillis = acquireTimeoutMillis;
+		this.statementCacheSize = statementCacheSize;
+		this.idle = new LinkedBlockingDeque<PooledConnection>();
+		this.permits = new Semaphore(maxSize, true);
+		try {
+			for (int i = 0; i < minSize; i++)
+				idle.add(open());
+		} catch (SQLException e) {
+			closeIdle();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The maximum number of connections lent at the same time
+	 */
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return The number of statements served from the statement caches
+	 */
+	long getStatementHits() {
+		return statementHits.get();
+	}
+
+	/**
+	 * @return The number of statements that had to be prepared by the driver
+	 */
+	long getStatementMisses() {
+		return statementMisses.get();
+	}
+
+	/**
+	 * Borrows a valid connection from the pool, opening a new one if
+	 * there is no idle connection available.
+	 *
+	 * @return A connection in auto-commit mode
+	 * @throws PersistenceException In case the pool is closed, no connection
+	 * becomes available within the acquire timeout, or a new connection fails
+	 * to establish.
+	 */
+	PooledConnection borrow() throws PersistenceException {
+		if (closed)
+			throw new PersistenceException("Connection pool is closed");
+		try {
+			if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS))
+				throw new PersistenceException("Timeout waiting for a database connection");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PersistenceException("Interrupted waiting for a database connection", e);
+		}
+		try {
+			PooledConnection connection;
+			while ((connection = idle.pollFirst()) != null) {
+				if (isUsable(connection.getConnection()))
+					return connection;
+				connection.close();
+			}
+			return open();
+		} catch (SQLException e) {
+			permits.release();
+			throw new PersistenceException("Cannot connect to database", e);
+		}
+	}
+
+	/**
+	 * Gives a borrowed connection back to the pool. Any pending work is
+	 * rolled back and auto-commit is restored before the connection is reused.
+	 *
+	 * @param pooled The connection obtained from borrow
+	 */
+	void release(PooledConnection pooled) {
+		Connection connection = pooled.getConnection();
+		try {
+			if (closed || connection.isClosed()) {
+				pooled.close();
+				return;
+			}
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+			idle.offerFirst(pooled);
+		} catch (SQLException e) {
+			pooled.close();
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Closes every idle connection and refuses further borrows. Connections
+	 * currently lent are closed when they are released.
+	 */
+	void close() {
+		closed = true;
+		closeIdle();
+	}
+
+	private PooledConnection open() throws SQLException {
+		Connection connection = DriverManager.getConnection(url, username, password);
+		return new PooledConnection(connection,
+				new StatementCache(connection, statementCacheSize, statementHits, statementMisses));
+	}
+
+	private boolean isUsable(Connection connection) {
+		try {
+			return connection.isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void closeIdle() {
+		PooledConnection connection;
+		while ((connection = idle.pollFirst()) != null)
+			connection.close();
+	}
+}
@@ -1,14 +1,22 @@
 package dataaccess;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import metrics.Metrics;
+import metrics.OperationMetrics;
 
 
 /**
- * Singleton that abstracts a database connection
+ * Singleton that abstracts a pool of database connections
  *
  * Remarks:
  * 1. Please notice how the Singleton is implemented. The usual form of implementing
@@ -16,150 +24,535 @@ import java.sql.Statement;
  * in a concurrent setting) and correct implementations based to fix the problem are
  * more complex that the one I show here. This solution, besides being elegant, works
  * properly in a concurrent setting.
- * 
- * 2. The usage of Singleton classes should be avoided; it does not go well with 
+ *
+ * 2. The usage of Singleton classes should be avoided; it does not go well with
  * unit testing, since there are explicit references to the class name instead of
  * a reference to the object of the class. This class serves to illustrate the
- * concept of DataSouce and is easy to understand. In version 2 I present an 
+ * concept of DataSouce and is easy to understand. In version 2 I present an
  * alternative implementation without a singleton implementation.
- *  
+ *
+ * 3. Connections are borrowed from a bounded pool and bound to the calling thread.
+ * A thread keeps its connection while it has open statements or a running
+ * transaction, so nested mapper calls and transactions see the same connection,
+ * while different threads work on different connections in parallel.
+ *
+ * 4. Each pooled connection keeps a least recently used cache of its prepared
+ * statements. Closing a statement obtained from prepare gives it back to that
+ * cache, so the constant SQL of the mappers is compiled once per connection.
+ *
+ * 5. The statements obtained from prepare are timed, and written to a slow query
+ * log when one is set, so every SQL statement of the mappers can be traced.
+ *
  * @author fmartins
- * @version 1.1 (18/02/2015)
+ * @version 1.2 (18/02/2015)
  *
  */
 public enum DataSource {
 	INSTANCE;
-	
+
 	/**
-	 * A connection to the database
-	 */ 
-	private Connection connection;
+	 * Default pool bounds, used when connecting without explicit ones
+	 */
+	public static final int DEFAULT_MIN_CONNECTIONS = 1;
+	public static final int DEFAULT_MAX_CONNECTIONS = 10;
+	public static final long DEFAULT_ACQUIRE_TIMEOUT = 30000;
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+	/**
+	 * The pool of connections to the database
+	 */
+	private volatile ConnectionPool pool;
+
+	/**
+	 * The connection each thread is currently using
+	 */
+	private final ThreadLocal<Binding> binding = new ThreadLocal<Binding>();
+
+	/**
+	 * Where the slow statements are written, if anywhere
+	 */
+	private volatile SlowQueryLog slowQueryLog;
 
 	// 1. Connections
-	
-	/**
-	 * Constructs a database connection given the connection url, the username, and its password
-	 * for the database engine.
-	 * 
-	 * @param url The database connection URL 
-	 * @param username The username to login into the database 
-	 * @param password The user's password 
+
+	/**
+	 * Constructs a pool of database connections given the connection url, the username,
+	 * and its password for the database engine, using the default pool bounds.
+	 *
+	 * @param url The database connection URL
+	 * @param username The username to login into the database
+	 * @param password The user's password
 	 * @return The data source.
 	 * @throws PersistenceException In case the connection fails to establish
 	 */
 	public DataSource connect (String url, String username, String password) throws PersistenceException {
+		return connect(url, username, password, DEFAULT_MIN_CONNECTIONS, DEFAULT_MAX_CONNECTIONS,
+				DEFAULT_ACQUIRE_TIMEOUT, DEFAULT_STATEMENT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructs a pool of database connections given the connection url, the username,
+	 * its password for the database engine, the pool bounds and the size of the
+	 * statement cache kept for each connection.
+	 *
+	 * @param url The database connection URL
+	 * @param username The username to login into the database
+	 * @param password The user's password
+	 * @param minConnections The number of connections opened upfront
+	 * @param maxConnections The maximum number of connections in use at the same time
+	 * @param acquireTimeout How long (in milliseconds) a thread waits for a free connection
+	 * @param statementCacheSize How many prepared statements are kept per connection (0 disables the cache)
+	 * @return The data source.
+	 * @throws PersistenceException In case the connection fails to establish
+	 */
+	public DataSource connect (String url, String username, String password,
+			int minConnections, int maxConnections, long acquireTimeout, int statementCacheSize) throws PersistenceException {
 		try {
-			connection = DriverManager.getConnection (url, username, password);
+			ConnectionPool previous = pool;
+			pool = new ConnectionPool(url, username, password, minConnections, maxConnections,
+					acquireTimeout, statementCacheSize);
+			if (previous != null)
+				previous.close();
 			return INSTANCE;
 		} catch (SQLException e) {
 			throw new PersistenceException("Cannot connect to database", e);
 		}
 	}
-	
+
+	/**
+	 * Gets the connection bound to the calling thread. If the thread has none,
+	 * one is borrowed from the pool and stays bound to the thread until
+	 * releaseConnection is called or the data source is closed.
+	 *
+	 * @return The current database connection
+	 * @throws PersistenceException In case no connection is available
+	 */
+	public Connection getConnection () throws PersistenceException {
+		Binding current = bind();
+		current.pinned = true;
+		return current.connection.getConnection();
+	}
+
+	/**
+	 * Lets go of the connection obtained with getConnection, returning it to
+	 * the pool unless the thread still has open statements or a running transaction.
+	 */
+	public void releaseConnection () {
+		Binding current = binding.get();
+		if (current != null) {
+			current.pinned = false;
+			unbindIfIdle(current);
+		}
+	}
+
 	/**
-	 * @return The current database connection 
+	 * @return The maximum number of connections that can be in use at the same time
 	 */
-	public Connection getConnection () {
-		return connection;
+	public int getMaxConnections () {
+		ConnectionPool current = pool;
+		return current == null ? 0 : current.getMaxSize();
 	}
 
 	/**
-	 * Close the database connection
+	 * @return How many prepared statements were reused from the statement caches
+	 */
+	public long getStatementCacheHits () {
+		ConnectionPool current = pool;
+		return current == null ? 0 : current.getStatementHits();
+	}
+
+	/**
+	 * @return How many prepared statements had to be compiled by the database
+	 */
+	public long getStatementCacheMisses () {
+		ConnectionPool current = pool;
+		return current == null ? 0 : current.getStatementMisses();
+	}
+
+	/**
+	 * Writes the statements prepared from now on that are slower than the
+	 * log's threshold to it, with their bind parameters, the rows they touched
+	 * and the method that ran them. Recording the bind parameters and rows has
+	 * a cost, so statements are only traced while a log is set.
+	 *
+	 * @param log The slow query log, or null to stop tracing statements
+	 */
+	public void setSlowQueryLog (SlowQueryLog log) {
+		slowQueryLog = log;
+	}
+
+	/**
+	 * @return The slow query log statements are written to, or null if none
+	 */
+	public SlowQueryLog getSlowQueryLog () {
+		return slowQueryLog;
+	}
+
+	/**
+	 * Close all database connections
 	 */
 	public void close () {
-		try {
-			connection.close();
-		} catch (SQLException e) {
-			// nothing that we can do about it...
+		Binding current = binding.get();
+		if (current != null) {
+			binding.remove();
+			current.pool.release(current.connection);
+		}
+		ConnectionPool activePool = pool;
+		if (activePool != null) {
+			pool = null;
+			activePool.close();
 		}
 	}
-	
-	
+
+
 	// 2. Prepare statements
 
 	/**
 	 * Prepare an SQL statement from an SQL string
-	 * 
+	 *
 	 * @param sql The SQL text to prepare the command
 	 * @return The prepared statement for the SQL text
-	 * @throws PersistenceException In case the prepare statement 
+	 * @throws PersistenceException In case the prepare statement
 	 * encounters an error.
 	 */
 	public PreparedStatement prepare (String sql) throws PersistenceException {
 		try {
-			return connection.prepareStatement(sql);
+			return prepare(sql, false);
 		} catch (SQLException e) {
 			throw new PersistenceException("Error preparing comment", e);
-		} 
+		}
 	}
-	
+
 	/**
-	 * Prepare an SQL statement from an SQL string and informs the underlying JDBC 
+	 * Prepare an SQL statement from an SQL string and informs the underlying JDBC
 	 * layer to get the automatically generated database keys.
-	 * 
+	 *
 	 * @param sql The SQL text to prepare the command
 	 * @return The prepared statement for the SQL text
-	 * @throws SQLException PersistenceException In case the prepare statement 
+	 * @throws SQLException PersistenceException In case the prepare statement
 	 * encounters an error.
 	 */
 	public PreparedStatement prepareGetGenKey (String sql) throws SQLException {
-		return connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS); 
+		return prepare(sql, true);
 	}
-		
-	
+
+	/**
+	 * Prepares a statement on the connection bound to the calling thread, reusing
+	 * a cached one when possible. The connection is kept bound until the returned
+	 * statement is closed.
+	 */
+	private PreparedStatement prepare (String sql, boolean genKeys) throws SQLException {
+		Binding current;
+		try {
+			current = bind();
+		} catch (PersistenceException e) {
+			throw new SQLException(e.getMessage(), e);
+		}
+		PreparedStatement statement;
+		try {
+			statement = current.connection.getStatements().checkout(sql, genKeys);
+		} catch (SQLException e) {
+			unbindIfIdle(current);
+			throw e;
+		}
+		current.statements++;
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, new BoundStatement(sql, genKeys, statement, current, slowQueryLog));
+	}
+
+
 	// 3. Transactions
-	
+
 	/**
-	 * Begins a database transaction
-	 * 
+	 * Begins a database transaction on the connection bound to the calling thread
+	 *
 	 * @throws PersistenceException In case the set commit flag cannot be set
 	 */
 	public void beginTransaction() throws PersistenceException {
+		Binding current = bind();
 		try {
-			connection.setAutoCommit(false);
+			current.connection.getConnection().setAutoCommit(false);
+			current.transaction = true;
 		} catch (SQLException e) {
+			unbindIfIdle(current);
 			throw new PersistenceException("Error starting DB transaction", e);
 		}
 	}
-	
+
 	/**
-	 * Commits a transaction 
-	 * 
+	 * @return Whether the calling thread is running a transaction
+	 */
+	public boolean isInTransaction() {
+		Binding current = binding.get();
+		return current != null && current.transaction;
+	}
+
+	/**
+	 * Commits a transaction. If the commit fails the transaction is rolled back.
+	 * Either way the transaction is over and the thread lets go of the connection
+	 * when it no longer needs it.
+	 *
 	 * @throws PersistenceException In case the commit transaction fails
 	 */
 	public void commit() throws PersistenceException {
+		Binding current = transactionBinding();
 		try {
-			connection.commit();
+			current.connection.getConnection().commit();
 		} catch (SQLException e) {
+			try {
+				current.connection.getConnection().rollback();
+			} catch (SQLException rollbackFailure) {
+				e.addSuppressed(rollbackFailure);
+			}
 			throw new PersistenceException("Error on commit", e);
+		} finally {
+			startAutoCommit(current);
 		}
-		startAutoCommit();
 	}
 
 	/**
-	 * Rolls back a transaction
-	 * 
+	 * Rolls back a transaction. The transaction is over even if the rollback fails.
+	 *
 	 * @throws PersistenceException In case the rollback transaction fails
 	 */
 	public void rollback() throws PersistenceException {
+		Binding current = transactionBinding();
 		try {
-			connection.rollback();
+			current.connection.getConnection().rollback();
 		} catch (SQLException e) {
 			throw new PersistenceException("Error on rollback!", e);
+		} finally {
+			startAutoCommit(current);
 		}
-		startAutoCommit();
 	}
 
 	/**
-	 * Disables commitment control
-	 * 
+	 * Disables commitment control and lets the connection go back to
+	 * the pool if the thread no longer needs it
+	 *
 	 * @throws PersistenceException In case the set commit flag cannot be set
 	 */
-	private void startAutoCommit() throws PersistenceException {
+	private void startAutoCommit(Binding current) throws PersistenceException {
+		current.transaction = false;
 		try {
-			connection.setAutoCommit(true);
+			current.connection.getConnection().setAutoCommit(true);
 		} catch (SQLException e) {
 			throw new PersistenceException("Error starting auto commit", e);
+		} finally {
+			unbindIfIdle(current);
+		}
+	}
+
+	private Binding transactionBinding() throws PersistenceException {
+		Binding current = binding.get();
+		if (current == null || !current.transaction)
+			throw new PersistenceException("No DB transaction running");
+		return current;
+	}
+
+
+	// 4. Thread binding
+
+	/**
+	 * @return The binding of the calling thread, borrowing a connection if
+	 * the thread has none.
+	 * @throws PersistenceException In case the data source is not connected
+	 * or no connection is available
+	 */
+	private Binding bind() throws PersistenceException {
+		Binding current = binding.get();
+		if (current == null) {
+			ConnectionPool activePool = pool;
+			if (activePool == null)
+				throw new PersistenceException("Data source is not connected");
+			current = new Binding(activePool, activePool.borrow());
+			binding.set(current);
+		}
+		return current;
+	}
+
+	/**
+	 * Returns the connection to the pool once the thread has no open statements,
+	 * no running transaction, and did not ask for the connection itself.
+	 */
+	private void unbindIfIdle(Binding current) {
+		if (current.statements == 0 && !current.transaction && !current.pinned) {
+			if (binding.get() == current)
+				binding.remove();
+			current.pool.release(current.connection);
+		}
+	}
+
+	/**
+	 * The connection lent to a thread and what the thread is doing with it
+	 */
+	private static final class Binding {
+		final ConnectionPool pool;
+		final PooledConnection connection;
+		int statements;
+		boolean transaction;
+		boolean pinned;
+
+		Binding(ConnectionPool pool, PooledConnection connection) {
+			this.pool = pool;
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * Statement returned to the mappers: closing it gives it back to the statement
+	 * cache and lets go of the thread's connection when it is no longer needed.
+	 * Executing it is timed in the metrics of its SQL text, and traced when
+	 * there is a slow query log.
+	 */
+	private final class BoundStatement implements InvocationHandler {
+		private final String sql;
+		private final boolean genKeys;
+		private final PreparedStatement statement;
+		private final Binding owner;
+		private final OperationMetrics metrics;
+		private boolean closed;
+
+		// while tracing: the bind parameters, and the query whose rows are being read
+		private final SlowQueryLog log;
+		private final List<Object> parameters;
+		private TracedQuery query;
+
+		BoundStatement(String sql, boolean genKeys, PreparedStatement statement, Binding owner, SlowQueryLog log) {
+			this.sql = sql;
+			this.genKeys = genKeys;
+			this.statement = statement;
+			this.owner = owner;
+			this.metrics = Metrics.ofSql(sql);
+			this.log = log;
+			this.parameters = log == null ? null : new ArrayList<Object>();
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("close".equals(name) && method.getParameterCount() == 0) {
+				if (!closed) {
+					closed = true;
+					finishQuery();
+					try {
+						owner.connection.getStatements().checkin(sql, genKeys, statement);
+					} finally {
+						owner.statements--;
+						unbindIfIdle(owner);
+					}
+				}
+				return null;
+			}
+			if ("isClosed".equals(name) && method.getParameterCount() == 0 && closed)
+				return true;
+			if (log != null)
+				bind(name, args);
+			if (!name.startsWith("execute")) {
+				try {
+					return method.invoke(statement, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+			finishQuery();
+			long start = System.nanoTime();
+			Object result = null;
+			try {
+				result = method.invoke(statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			} finally {
+				long elapsed = System.nanoTime() - start;
+				metrics.record(elapsed, result == null);
+				if (log != null && !(result instanceof ResultSet) && log.isSlow(elapsed))
+					log.record(sql, new ArrayList<Object>(parameters), elapsed, rowsOf(result));
+			}
+			if (log != null && result instanceof ResultSet) {
+				query = new TracedQuery((ResultSet) result, start);
+				return Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+						new Class<?>[] { ResultSet.class }, query);
+			}
+			return result;
+		}
+
+		/**
+		 * Keeps the value of a bind parameter, by its position
+		 */
+		private void bind(String name, Object[] args) {
+			if ("clearParameters".equals(name)) {
+				parameters.clear();
+			} else if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+				int index = (Integer) args[0] - 1;
+				while (parameters.size() <= index)
+					parameters.add(null);
+				parameters.set(index, "setNull".equals(name) ? null : args[1]);
+			}
+		}
+
+		/**
+		 * Traces the query whose rows were being read, if any
+		 */
+		private void finishQuery() {
+			if (query != null) {
+				query.finish();
+				query = null;
+			}
+		}
+
+		private long rowsOf(Object result) {
+			if (result instanceof Number)
+				return ((Number) result).longValue();
+			long rows = 0;
+			if (result instanceof int[])
+				for (int count : (int[]) result)
+					rows += Math.max(count, 0);
+			else if (result instanceof long[])
+				for (long count : (long[]) result)
+					rows += Math.max(count, 0);
+			else
+				return -1;
+			return rows;
+		}
+
+		/**
+		 * Result set of a traced query: counts the rows read, and traces the
+		 * query once it is closed, including the time taken reading them
+		 */
+		private final class TracedQuery implements InvocationHandler {
+			private final ResultSet rows;
+			private final long start;
+			private final List<Object> boundParameters = new ArrayList<Object>(parameters);
+			private long read;
+			private boolean finished;
+
+			TracedQuery(ResultSet rows, long start) {
+				this.rows = rows;
+				this.start = start;
+			}
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Object result;
+				try {
+					result = method.invoke(rows, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+				String name = method.getName();
+				if ("next".equals(name) && Boolean.TRUE.equals(result))
+					read++;
+				else if ("close".equals(name))
+					finish();
+				return result;
+			}
+
+			void finish() {
+				if (!finished) {
+					finished = true;
+					log.record(sql, boundParameters, System.nanoTime() - start, read);
+				}
+			}
 		}
 	}
 
@@ -0,0 +1,170 @@
+package dataaccess;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import business.OverdueRental;
+import business.ProductSpec;
+import business.Rental;
+import business.RentalProduct;
+
+/**
+ * The storage kept in the database the DataSource is connected to. The
+ * repositories delegate to the mappers, and units of work are transactions
+ * on the connection bound to the calling thread.
+ *
+ * @author ADS08
+ */
+public enum DatabaseStorage implements Storage {
+    INSTANCE;
+
+    private final ProductRepository products = new Products();
+    private final RentalRepository rentals = new Rentals();
+    private final RentalLineRepository rentalLines = new RentalLines();
+
+    @Override
+    public ProductRepository products() {
+        return products;
+    }
+
+    @Override
+    public RentalRepository rentals() {
+        return rentals;
+    }
+
+    @Override
+    public RentalLineRepository rentalLines() {
+        return rentalLines;
+    }
+
+    @Override
+    public UnitOfWork beginUnitOfWork() throws PersistenceException {
+        return DatabaseUnitOfWork.begin();
+    }
+
+    /**
+     * The products, through the ProductMapper
+     */
+    private static final class Products implements ProductRepository {
+
+        @Override
+        public ProductSpec getProductById(int id) throws PersistenceException {
+            return ProductMapper.getProductById(id);
+        }
+
+        @Override
+        public ProductSpec getProductByProdCod(int itemID) throws PersistenceException {
+            return ProductMapper.getProductByProdCod(itemID);
+        }
+
+        @Override
+        public Map<Integer, ProductSpec> getProductsByProdCods(Collection<Integer> itemIDs) throws PersistenceException {
+            return ProductMapper.getProductsByProdCods(itemIDs);
+        }
+
+        @Override
+        public void updateStockValue(int prod_id, int qty) throws PersistenceException {
+            ProductMapper.updateStockValue(prod_id, qty);
+        }
+
+        @Override
+        public boolean decreaseStock(int prod_id, int qty) throws PersistenceException {
+            return ProductMapper.decreaseStock(prod_id, qty);
+        }
+
+        @Override
+        public void increaseStock(int prod_id, int qty) throws PersistenceException {
+            ProductMapper.increaseStock(prod_id, qty);
+        }
+
+        @Override
+        public boolean decreaseStocks(int[] prod_ids, int[] qtys) throws PersistenceException {
+            return ProductMapper.decreaseStocks(prod_ids, qtys);
+        }
+
+        @Override
+        public void increaseStocks(int[] prod_ids, int[] qtys) throws PersistenceException {
+            ProductMapper.increaseStocks(prod_ids, qtys);
+        }
+    }
+
+    /**
+     * The rentals, through the RentalMapper
+     */
+    private static final class Rentals implements RentalRepository {
+
+        @Override
+        public int insert(Date date, Date returnDate) throws PersistenceException {
+            return RentalMapper.insert(date, returnDate);
+        }
+
+        @Override
+        public void update(int rental_id, double total, String status) throws PersistenceException {
+            RentalMapper.update(rental_id, total, status);
+        }
+
+        @Override
+        public void updateRentalStatus(int rental_id, byte rental_status) throws PersistenceException {
+            RentalMapper.updateRentalStatus(rental_id, rental_status);
+        }
+
+        @Override
+        public boolean markReturned(int rental_id) throws PersistenceException {
+            return RentalMapper.markReturned(rental_id);
+        }
+
+        @Override
+        public void delete(int rental_id) throws PersistenceException {
+            RentalMapper.delete(rental_id);
+        }
+
+        @Override
+        public Rental getRentalById(int rental_id) throws PersistenceException {
+            return RentalMapper.getRentalById(rental_id);
+        }
+
+        @Override
+        public List<Rental> getAllRentals() throws PersistenceException {
+            return RentalMapper.getAllRentals();
+        }
+
+        @Override
+        public List<Rental> getRentalPage(int afterId, int pageSize) throws PersistenceException {
+            return RentalMapper.getRentalPage(afterId, pageSize);
+        }
+
+        @Override
+        public List<OverdueRental> getOverdueRentals(LocalDate asOf) throws PersistenceException {
+            return RentalMapper.getOverdueRentals(asOf);
+        }
+    }
+
+    /**
+     * The rental products, through the RentalProductMapper
+     */
+    private static final class RentalLines implements RentalLineRepository {
+
+        @Override
+        public int insert(int rental_id, int prod_id, int qty) throws PersistenceException {
+            return RentalProductMapper.insert(rental_id, prod_id, qty);
+        }
+
+        @Override
+        public int[] insertAll(int rental_id, int[] prod_ids, int[] qtys) throws PersistenceException {
+            return RentalProductMapper.insertAll(rental_id, prod_ids, qtys);
+        }
+
+        @Override
+        public void delete(int rental_id) throws PersistenceException {
+            RentalProductMapper.delete(rental_id);
+        }
+
+        @Override
+        public List<RentalProduct> getRentalProducts(int rental_id) throws PersistenceException {
+            return RentalProductMapper.getRentalProducts(rental_id);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package dataaccess;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A unit of work on the database: a transaction on the connection bound to
+ * the calling thread, which syncs the database log only once, on commit.
+ * A unit of work started while the thread already runs a transaction joins
+ * it, and leaves the commit or rollback to the outer unit.
+ *
+ * @author ADS08
+ */
+class DatabaseUnitOfWork implements UnitOfWork {
+
+    // the outermost unit of work of each thread, while it runs
+    private static final ThreadLocal<DatabaseUnitOfWork> current = new ThreadLocal<DatabaseUnitOfWork>();
+
+    private final boolean joined;
+    private final CompletionActions actions;
+    // the rentals changed by the transaction, which the rental cache forgets on rollback
+    private final Set<Integer> changedRentals;
+    private boolean done;
+
+    private DatabaseUnitOfWork(DatabaseUnitOfWork outer) {
+        this.joined = outer != null;
+        this.actions = joined ? outer.actions : new CompletionActions();
+        this.changedRentals = joined ? outer.changedRentals : new HashSet<Integer>();
+    }
+
+    /**
+     * Starts a unit of work on the connection bound to the calling thread
+     *
+     * @return The new unit of work
+     * @throws PersistenceException In case the transaction cannot be started
+     */
+    static DatabaseUnitOfWork begin() throws PersistenceException {
+        DatabaseUnitOfWork outer = current.get();
+        if (outer != null)
+            return new DatabaseUnitOfWork(outer);
+        DataSource.INSTANCE.beginTransaction();
+        DatabaseUnitOfWork unit = new DatabaseUnitOfWork(null);
+        current.set(unit);
+        return unit;
+    }
+
+    /**
+     * @return The outermost unit of work the calling thread runs, or null if none
+     */
+    static DatabaseUnitOfWork current() {
+        return current.get();
+    }
+
+    /**
+     * Commits the unit of work
+     *
+     * @throws PersistenceException In case the commit fails
+     */
+    @Override
+    public void commit() throws PersistenceException {
+        if (done)
+            throw new PersistenceException("Unit of work already finished");
+        if (joined) {
+            done = true;
+            return;
+        }
+        DataSource.INSTANCE.commit();
+        done = true;
+        current.remove();
+        actions.committed();
+    }
+
+    /**
+     * Records a rental changed by the transaction: it may be cached with the
+     * changes meanwhile, so it is evicted from the cache if they are rolled back
+     *
+     * @param rental_id The id of the rental
+     */
+    void rentalChanged(int rental_id) {
+        changedRentals.add(rental_id);
+    }
+
+    @Override
+    public void afterCommit(Runnable action) {
+        actions.afterCommit(action);
+    }
+
+    @Override
+    public void afterRollback(Runnable action) {
+        actions.afterRollback(action);
+    }
+
+    /**
+     * Rolls back the unit of work if it was not committed. The rentals it changed
+     * may be cached with the changes that were undone, so they are evicted; cached
+     * products only take the changes of a unit once it commits. A failed commit
+     * already rolled the transaction back, so only the rentals are evicted then.
+     *
+     * @throws PersistenceException In case the rollback fails
+     */
+    @Override
+    public void close() throws PersistenceException {
+        if (done || joined)
+            return;
+        done = true;
+        current.remove();
+        try {
+            if (DataSource.INSTANCE.isInTransaction())
+                DataSource.INSTANCE.rollback();
+        } finally {
+            for (int rental_id : changedRentals)
+                RentalMapper.evict(rental_id);
+            actions.rolledBack();
+        }
+    }
+}
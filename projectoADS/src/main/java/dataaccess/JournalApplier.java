@@ -0,0 +1,323 @@
+package dataaccess;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import business.Rental;
+
+/**
+ * Applies the records of the rental journal to the database, in the
+ * background and in batches: the changes of many records are committed in
+ * a single transaction, together with how far the journal was applied, so
+ * that each record is applied exactly once even if the application stops
+ * in the middle of a batch.
+ *
+ * The journal is applied up to its last valid record when opened, before the
+ * application runs; afterwards a thread applies the records as they are
+ * appended, counting them so that callers can wait for their own records.
+ *
+ * @author ADS08
+ */
+class JournalApplier implements Runnable {
+
+    // the number of records applied in one transaction, at most
+    private static final int BATCH_RECORDS = 500;
+
+    // how long the thread waits before retrying after the database failed
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toNanos(1);
+
+    // how many times in a row a batch is tried before the thread gives up
+    private static final int MAX_ATTEMPTS = 10;
+
+    // how long the thread sleeps when there is nothing to apply
+    private static final long IDLE_DELAY = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final RentalJournal journal;
+    private final Runnable onApplied;
+
+    // the offset up to which the current generation was applied
+    private int applied;
+
+    // the number of records applied since the journal was opened
+    private volatile long appliedRecords;
+
+    private volatile boolean stopped;
+    private volatile PersistenceException failure;
+    private Thread thread;
+
+    /**
+     * @param journal   The journal to apply
+     * @param onApplied Called after each batch is committed
+     */
+    JournalApplier(RentalJournal journal, Runnable onApplied) {
+        this.journal = journal;
+        this.onApplied = onApplied;
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statement: how far the journal was applied
+    private static final String GET_JOURNAL_STATE_SQL =
+            "SELECT generation, applied_offset FROM journal_state WHERE id = 1";
+
+    /**
+     * Applies the records left in the journal by the last run, then starts a
+     * new generation of the journal
+     *
+     * @throws PersistenceException If the records cannot be applied
+     */
+    void recover() throws PersistenceException {
+        long generation = -1;
+        int offset = RentalJournal.HEADER_SIZE;
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(GET_JOURNAL_STATE_SQL);
+             ResultSet rs = statement.executeQuery()) {
+            if (rs.next()) {
+                generation = rs.getLong("generation");
+                offset = rs.getInt("applied_offset");
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException("Unable to read the state of the rental journal", e);
+        }
+
+        long current = journal.getGeneration();
+        if (generation == current) {
+            applied = offset;                               // the generation was partly applied
+        } else {
+            applied = RentalJournal.HEADER_SIZE;            // nothing of it was applied yet
+            if (generation > current)                       // the journal file was replaced
+                journal.reset(generation + 1);
+        }
+
+        int tail = journal.recover(applied);
+        while (applied < tail)
+            applyBatch(tail);
+        journal.reset(journal.getGeneration() + 1);
+        applied = RentalJournal.HEADER_SIZE;
+    }
+
+    /**
+     * Starts applying the records appended from now on
+     */
+    void start() {
+        thread = new Thread(this, "rental-journal-applier");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Tells the thread that records were appended
+     */
+    void wakeUp() {
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return The number of records applied since the journal was opened
+     */
+    long getAppliedRecords() {
+        return appliedRecords;
+    }
+
+    /**
+     * Waits until a number of records were applied
+     *
+     * @param records The number of records, counted since the journal was opened
+     * @throws PersistenceException If the thread stopped before applying them, e.g.
+     *         because it gave up on a batch the database kept failing, which is the cause
+     */
+    synchronized void awaitApplied(long records) throws PersistenceException {
+        wakeUp();
+        while (appliedRecords < records) {
+            if (stopped)
+                throw new PersistenceException("The rental journal is no longer applied", failure);
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PersistenceException("Interrupted waiting for the rental journal", e);
+            }
+        }
+    }
+
+    /**
+     * Stops the thread once the current batch, if any, is committed
+     */
+    void stop() throws InterruptedException {
+        stopped = true;
+        LockSupport.unpark(thread);
+        thread.join();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Applies the records as they are appended, until stopped or until a batch
+     * failed MAX_ATTEMPTS times in a row; the records are then left in the
+     * journal, to be applied when it is opened again
+     */
+    @Override
+    public void run() {
+        int attempts = 0;
+        while (!stopped) {
+            int tail = journal.getTail();
+            if (applied == tail) {
+                if (journal.resetIfConsumed(applied))
+                    applied = RentalJournal.HEADER_SIZE;
+                else
+                    LockSupport.parkNanos(this, IDLE_DELAY);
+                continue;
+            }
+            try {
+                long records = applyBatch(tail);
+                synchronized (this) {
+                    appliedRecords += records;
+                    failure = null;
+                    notifyAll();
+                }
+                attempts = 0;
+                onApplied.run();
+            } catch (PersistenceException e) {
+                failure = e;
+                if (++attempts == MAX_ATTEMPTS) {
+                    synchronized (this) {    // the waiters get the failure
+                        stopped = true;
+                        notifyAll();
+                    }
+                    return;
+                }
+                LockSupport.parkNanos(this, RETRY_DELAY);    // the database may be unavailable for a while
+            }
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statements: record how far the journal was applied
+    private static final String UPDATE_JOURNAL_STATE_SQL =
+            "UPDATE journal_state SET generation = ?, applied_offset = ? WHERE id = 1";
+    private static final String INSERT_JOURNAL_STATE_SQL =
+            "INSERT INTO journal_state (id, generation, applied_offset) VALUES (1, ?, ?)";
+
+    /**
+     * Applies the records after the applied offset, up to the tail or BATCH_RECORDS
+     * of them, in a single transaction
+     *
+     * @param tail The offset after the last record appended
+     * @return The number of records applied
+     * @throws PersistenceException If the records cannot be applied
+     */
+    private long applyBatch(int tail) throws PersistenceException {
+        Changes changes = new Changes();
+        int offset = applied;
+        int records = 0;
+        try (DatabaseUnitOfWork unit = DatabaseUnitOfWork.begin()) {
+            while (offset < tail && records < BATCH_RECORDS) {
+                byte[] payload = journal.read(offset);
+                if (payload == null)
+                    throw new PersistenceException("Corrupted rental journal record at " + offset);
+                JournalEvents.read(payload, changes);
+                offset = journal.next(offset);
+                records++;
+            }
+            try (PreparedStatement statement = DataSource.INSTANCE.prepare(UPDATE_JOURNAL_STATE_SQL)) {
+                statement.setLong(1, journal.getGeneration());
+                statement.setInt(2, offset);
+                if (statement.executeUpdate() == 0)
+                    try (PreparedStatement insert = DataSource.INSTANCE.prepare(INSERT_JOURNAL_STATE_SQL)) {
+                        insert.setLong(1, journal.getGeneration());
+                        insert.setInt(2, offset);
+                        insert.executeUpdate();
+                    }
+            } catch (SQLException e) {
+                throw new PersistenceException("Unable to record the state of the rental journal", e);
+            }
+            unit.commit();
+        }
+        applied = offset;
+        for (int rental_id : changes.rentals)
+            RentalMapper.evict(rental_id);
+        return records;
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statements: insert rentals and rental products with the ids given
+    // by the journal
+    private static final String INSERT_RENTAL_SQL =
+            "INSERT INTO rental (id, date, return_date, total, status, return_status) VALUES (?, ?, ?, 0.0, '"
+            + Rental.OPEN + "', " + Rental.WAITING + ")";
+    private static final String INSERT_RENTAL_PRODUCT_SQL =
+            "INSERT INTO rentalproduct (id, rental_id, product_id, qty) VALUES (?, ?, ?, ?)";
+
+    /**
+     * Makes the changes read from the journal in the database
+     */
+    private static final class Changes implements JournalEvents.Handler {
+
+        // the rentals changed, to be evicted from the cache once committed
+        final Set<Integer> rentals = new HashSet<Integer>();
+
+        @Override
+        public void rentalInserted(int id, long date, long returnDate) throws PersistenceException {
+            try (PreparedStatement statement = DataSource.INSTANCE.prepare(INSERT_RENTAL_SQL)) {
+                statement.setInt(1, id);
+                statement.setDate(2, new Date(date));
+                statement.setDate(3, new Date(returnDate));
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                throw new PersistenceException("Error inserting rental " + id + " from the journal", e);
+            }
+            rentals.add(id);
+        }
+
+        @Override
+        public void rentalUpdated(int id, double total, String status) throws PersistenceException {
+            RentalMapper.update(id, total, status);
+        }
+
+        @Override
+        public void rentalStatusUpdated(int id, byte returnStatus) throws PersistenceException {
+            RentalMapper.updateRentalStatus(id, returnStatus);
+        }
+
+        @Override
+        public void rentalDeleted(int id) throws PersistenceException {
+            RentalMapper.delete(id);
+        }
+
+        @Override
+        public void lineInserted(int id, int rentalId, int productId, int qty) throws PersistenceException {
+            try (PreparedStatement statement = DataSource.INSTANCE.prepare(INSERT_RENTAL_PRODUCT_SQL)) {
+                statement.setInt(1, id);
+                statement.setInt(2, rentalId);
+                statement.setInt(3, productId);
+                statement.setInt(4, qty);
+                statement.executeUpdate();
+            } catch (SQLException e) {
+                throw new PersistenceException("Error inserting rental product " + id + " from the journal", e);
+            }
+            rentals.add(rentalId);
+        }
+
+        @Override
+        public void linesDeleted(int rentalId) throws PersistenceException {
+            RentalProductMapper.delete(rentalId);
+            rentals.add(rentalId);
+        }
+
+        @Override
+        public void stockChanged(int productId, int delta) throws PersistenceException {
+            // the stock was already checked when the change was journaled
+            ProductMapper.increaseStock(productId, delta);
+        }
+
+        @Override
+        public void stockSet(int productId, int qty) throws PersistenceException {
+            ProductMapper.updateStockValue(productId, qty);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package dataaccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The changes recorded in the rental journal, and how they are written to
+ * and read from a journal record. A record holds the changes of one unit of
+ * work, each one a tag followed by its fields.
+ *
+ * @author ADS08
+ */
+final class JournalEvents {
+
+    static final byte RENTAL_INSERTED = 1;        // id, date, return date
+    static final byte RENTAL_UPDATED = 2;         // id, total, status
+    static final byte RENTAL_STATUS_UPDATED = 3;  // id, return status
+    static final byte RENTAL_DELETED = 4;         // id
+    static final byte LINE_INSERTED = 5;          // id, rental id, product id, qty
+    static final byte LINES_DELETED = 6;          // rental id
+    static final byte STOCK_CHANGED = 7;          // product id, delta
+    static final byte STOCK_SET = 8;              // product id, qty
+
+    private JournalEvents() {
+    }
+
+    /**
+     * Writes the changes of a unit of work into the payload of a record
+     */
+    static final class Writer {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        void rentalInserted(int id, long date, long returnDate) {
+            try {
+                out.writeByte(RENTAL_INSERTED);
+                out.writeInt(id);
+                out.writeLong(date);
+                out.writeLong(returnDate);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void rentalUpdated(int id, double total, String status) {
+            try {
+                out.writeByte(RENTAL_UPDATED);
+                out.writeInt(id);
+                out.writeDouble(total);
+                out.writeUTF(status);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void rentalStatusUpdated(int id, byte returnStatus) {
+            try {
+                out.writeByte(RENTAL_STATUS_UPDATED);
+                out.writeInt(id);
+                out.writeByte(returnStatus);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void rentalDeleted(int id) {
+            try {
+                out.writeByte(RENTAL_DELETED);
+                out.writeInt(id);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void lineInserted(int id, int rentalId, int productId, int qty) {
+            try {
+                out.writeByte(LINE_INSERTED);
+                out.writeInt(id);
+                out.writeInt(rentalId);
+                out.writeInt(productId);
+                out.writeInt(qty);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void linesDeleted(int rentalId) {
+            try {
+                out.writeByte(LINES_DELETED);
+                out.writeInt(rentalId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void stockChanged(int productId, int delta) {
+            try {
+                out.writeByte(STOCK_CHANGED);
+                out.writeInt(productId);
+                out.writeInt(delta);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void stockSet(int productId, int qty) {
+            try {
+                out.writeByte(STOCK_SET);
+                out.writeInt(productId);
+                out.writeInt(qty);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        boolean isEmpty() {
+            return bytes.size() == 0;
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * What is done with each change read from a record
+     */
+    interface Handler {
+        void rentalInserted(int id, long date, long returnDate) throws PersistenceException;
+
+        void rentalUpdated(int id, double total, String status) throws PersistenceException;
+
+        void rentalStatusUpdated(int id, byte returnStatus) throws PersistenceException;
+
+        void rentalDeleted(int id) throws PersistenceException;
+
+        void lineInserted(int id, int rentalId, int productId, int qty) throws PersistenceException;
+
+        void linesDeleted(int rentalId) throws PersistenceException;
+
+        void stockChanged(int productId, int delta) throws PersistenceException;
+
+        void stockSet(int productId, int qty) throws PersistenceException;
+    }
+
+    /**
+     * Reads the changes of a record, in the order they were written
+     *
+     * @param payload The payload of the record
+     * @param handler What is done with each change
+     * @throws PersistenceException If the handler fails, or the payload is not well formed
+     */
+    static void read(byte[] payload, Handler handler) throws PersistenceException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            while (in.available() > 0) {
+                byte tag = in.readByte();
+                switch (tag) {
+                    case RENTAL_INSERTED:
+                        handler.rentalInserted(in.readInt(), in.readLong(), in.readLong());
+                        break;
+                    case RENTAL_UPDATED:
+                        handler.rentalUpdated(in.readInt(), in.readDouble(), in.readUTF());
+                        break;
+                    case RENTAL_STATUS_UPDATED:
+                        handler.rentalStatusUpdated(in.readInt(), in.readByte());
+                        break;
+                    case RENTAL_DELETED:
+                        handler.rentalDeleted(in.readInt());
+                        break;
+                    case LINE_INSERTED:
+                        handler.lineInserted(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                        break;
+                    case LINES_DELETED:
+                        handler.linesDeleted(in.readInt());
+                        break;
+                    case STOCK_CHANGED:
+                        handler.stockChanged(in.readInt(), in.readInt());
+                        break;
+                    case STOCK_SET:
+                        handler.stockSet(in.readInt(), in.readInt());
+                        break;
+                    default:
+                        throw new PersistenceException("Unknown journal event " + tag);
+                }
+            }
+        } catch (IOException e) {
+            throw new PersistenceException("Malformed journal record", e);
+        }
+    }
+}
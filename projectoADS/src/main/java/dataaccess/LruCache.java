@@ -0,0 +1,204 @@
+package dataaccess;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache that evicts the least recently used objects, and optionally
+ * the objects that were cached longer than a time to live.
+ *
+ * The keys are spread over a fixed number of segments, each one an access
+ * ordered map guarded by its own lock, so threads working on different keys
+ * seldom wait for each other. The size bound is split evenly among the
+ * segments, so the least recently used order is kept per segment.
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the cached objects
+ *
+ * @author ADS08
+ */
+public class LruCache<K, V> implements Cache<K, V> {
+
+    // number of segments; a power of two so that a mask selects the segment
+    private static final int SEGMENTS = 16;
+
+    // small caches use fewer segments, so that each one holds at least this many objects
+    private static final int MIN_SEGMENT_SIZE = 16;
+
+    private final Segment<K, V>[] segments;
+    private final long timeToLiveNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache whose objects never expire
+     *
+     * @param maximumSize The maximum number of cached objects
+     */
+    public LruCache(int maximumSize) {
+        this(maximumSize, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a cache whose objects expire some time after being cached
+     *
+     * @param maximumSize The maximum number of cached objects
+     * @param timeToLive  How long an object stays in the cache (zero means forever)
+     * @param unit        The unit of the time to live
+     */
+    public LruCache(int maximumSize, long timeToLive, TimeUnit unit) {
+        if (maximumSize < 1)
+            throw new IllegalArgumentException("Invalid cache size " + maximumSize);
+        if (timeToLive < 0)
+            throw new IllegalArgumentException("Invalid time to live " + timeToLive);
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        int segmentCount = Math.min(SEGMENTS, Integer.highestOneBit(Math.max(1, maximumSize / MIN_SEGMENT_SIZE)));
+        int segmentSize = (maximumSize + segmentCount - 1) / segmentCount;
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        for (int i = 0; i < segmentCount; i++)
+            segments[i] = new Segment<K, V>(segmentSize);
+        this.segments = segments;
+    }
+
+    @Override
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            Entry<V> entry = segment.entries.get(key);
+            if (entry != null && isExpired(entry)) {
+                segment.entries.remove(key);
+                evictions.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.value;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.entries.put(key, new Entry<V>(value, System.nanoTime()));
+            evictEldest(segment);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> entries) {
+        for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet())
+            put(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public void remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.entries.remove(key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.entries.clear();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.entries.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);  // spread the high bits, ids are mostly small numbers
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return timeToLiveNanos > 0 && System.nanoTime() - entry.cachedAt > timeToLiveNanos;
+    }
+
+    /**
+     * Drops the least recently used objects of a segment until it respects its bound.
+     * Expired objects found at the head of the segment are dropped as well.
+     *
+     * @requires the segment lock is held
+     */
+    private void evictEldest(Segment<K, V> segment) {
+        Iterator<Entry<V>> eldest = segment.entries.values().iterator();
+        while (eldest.hasNext()) {
+            Entry<V> entry = eldest.next();
+            if (segment.entries.size() <= segment.maximumSize && !isExpired(entry))
+                break;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * A cached object and when it was cached
+     */
+    private static final class Entry<V> {
+        final V value;
+        final long cachedAt;
+
+        Entry(V value, long cachedAt) {
+            this.value = value;
+            this.cachedAt = cachedAt;
+        }
+    }
+
+    /**
+     * Part of the cache guarded by a single lock
+     */
+    private static final class Segment<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+        final int maximumSize;
+
+        Segment(int maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package dataaccess;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import business.OverdueRental;
+import business.ProductSpec;
+import business.Rental;
+import business.RentalProduct;
+
+/**
+ * A storage that keeps products and rentals in memory only, for workloads
+ * and tests that cannot afford a database round trip per operation.
+ *
+ * Products are indexed by id and by itemID, and the stock of each product
+ * is an atomic counter, so stock updates never block. A rental and its
+ * rental products are kept together in an immutable record that is replaced
+ * as a whole when the rental changes, so readers always see a consistent
+ * rental. Every operation is atomic and can run from any thread.
+ *
+ * Operations take effect immediately. Those made within a unit of work are
+ * undone when it is closed without being committed, last made first, by
+ * compensating changes, so changes made by other threads meanwhile are kept.
+ *
+ * @author ADS08
+ */
+public class MemoryStorage implements Storage {
+
+    // the products, indexed by id and by itemID
+    private final ConcurrentHashMap<Integer, StoredProduct> productsById =
+            new ConcurrentHashMap<Integer, StoredProduct>();
+    private final ConcurrentHashMap<Integer, StoredProduct> productsByItemId =
+            new ConcurrentHashMap<Integer, StoredProduct>();
+
+    // the rentals, ordered by id for paging
+    private final ConcurrentSkipListMap<Integer, StoredRental> storedRentals =
+            new ConcurrentSkipListMap<Integer, StoredRental>();
+
+    private final AtomicInteger rentalIds = new AtomicInteger();
+    private final AtomicInteger lineIds = new AtomicInteger();
+
+    private final ThreadLocal<MemoryUnitOfWork> currentUnit = new ThreadLocal<MemoryUnitOfWork>();
+
+    private final ProductRepository products = new Products();
+    private final RentalRepository rentals = new Rentals();
+    private final RentalLineRepository rentalLines = new RentalLines();
+
+    /**
+     * Adds a product to the storage, replacing the one with the same id if any
+     *
+     * @param id          The id of the product
+     * @param itemID      The itemID of the product
+     * @param description The description of the product
+     * @param price       The price of the product
+     * @param qty         The stock of the product
+     */
+    public void addProduct(int id, int itemID, String description, double price, int qty) {
+        StoredProduct product = new StoredProduct(id, itemID, description, price, qty);
+        StoredProduct previous = productsById.put(id, product);
+        if (previous != null)
+            productsByItemId.remove(previous.itemID, previous);
+        productsByItemId.put(itemID, product);
+    }
+
+    @Override
+    public ProductRepository products() {
+        return products;
+    }
+
+    @Override
+    public RentalRepository rentals() {
+        return rentals;
+    }
+
+    @Override
+    public RentalLineRepository rentalLines() {
+        return rentalLines;
+    }
+
+    @Override
+    public UnitOfWork beginUnitOfWork() {
+        MemoryUnitOfWork outer = currentUnit.get();
+        if (outer != null)
+            return new MemoryUnitOfWork(outer);
+        MemoryUnitOfWork unit = new MemoryUnitOfWork(null);
+        currentUnit.set(unit);
+        return unit;
+    }
+
+    /**
+     * Records how to undo a change made by the current thread, if it is within a unit of work
+     */
+    private void undo(Runnable action) {
+        MemoryUnitOfWork unit = currentUnit.get();
+        if (unit != null)
+            unit.undo.add(action);
+    }
+
+    private StoredProduct product(int id) throws RecordNotFoundException {
+        StoredProduct product = productsById.get(id);
+        if (product == null)
+            throw new RecordNotFoundException("Product " + id + " does not exist");
+        return product;
+    }
+
+    /**
+     * The products, with an atomic stock each
+     */
+    private final class Products implements ProductRepository {
+
+        @Override
+        public ProductSpec getProductById(int id) throws PersistenceException {
+            return product(id).copy();
+        }
+
+        @Override
+        public ProductSpec getProductByProdCod(int itemID) throws PersistenceException {
+            StoredProduct product = productsByItemId.get(itemID);
+            if (product == null)
+                throw new RecordNotFoundException("Product with itemID " + itemID + " does not exist");
+            return product.copy();
+        }
+
+        @Override
+        public Map<Integer, ProductSpec> getProductsByProdCods(Collection<Integer> itemIDs) {
+            Map<Integer, ProductSpec> found = new HashMap<Integer, ProductSpec>();
+            for (Integer itemID : itemIDs) {
+                StoredProduct product = productsByItemId.get(itemID);
+                if (product != null)
+                    found.put(itemID, product.copy());
+            }
+            return found;
+        }
+
+        @Override
+        public void updateStockValue(int prod_id, int qty) {
+            StoredProduct product = productsById.get(prod_id);
+            if (product != null) {
+                int previous = product.stock.getAndSet(qty);
+                undo(() -> product.stock.addAndGet(previous - qty));
+            }
+        }
+
+        @Override
+        public boolean decreaseStock(int prod_id, int qty) {
+            StoredProduct product = productsById.get(prod_id);
+            if (product == null || !product.take(qty))
+                return false;
+            undo(() -> product.stock.addAndGet(qty));
+            return true;
+        }
+
+        @Override
+        public void increaseStock(int prod_id, int qty) throws PersistenceException {
+            StoredProduct product = product(prod_id);
+            product.stock.addAndGet(qty);
+            undo(() -> product.stock.addAndGet(-qty));
+        }
+
+        @Override
+        public boolean decreaseStocks(int[] prod_ids, int[] qtys) {
+            for (int i = 0; i < prod_ids.length; i++) {
+                StoredProduct product = productsById.get(prod_ids[i]);
+                if (product == null || !product.take(qtys[i])) {
+                    // give back the units already taken
+                    for (int j = 0; j < i; j++)
+                        productsById.get(prod_ids[j]).stock.addAndGet(qtys[j]);
+                    return false;
+                }
+            }
+            undo(() -> {
+                for (int i = 0; i < prod_ids.length; i++)
+                    productsById.get(prod_ids[i]).stock.addAndGet(qtys[i]);
+            });
+            return true;
+        }
+
+        @Override
+        public void increaseStocks(int[] prod_ids, int[] qtys) throws PersistenceException {
+            StoredProduct[] found = new StoredProduct[prod_ids.length];
+            for (int i = 0; i < prod_ids.length; i++)
+                found[i] = product(prod_ids[i]);
+            for (int i = 0; i < found.length; i++)
+                found[i].stock.addAndGet(qtys[i]);
+            undo(() -> {
+                for (int i = 0; i < found.length; i++)
+                    found[i].stock.addAndGet(-qtys[i]);
+            });
+        }
+    }
+
+    /**
+     * The rentals, as immutable records replaced on each change
+     */
+    private final class Rentals implements RentalRepository {
+
+        @Override
+        public int insert(java.util.Date date, java.util.Date returnDate) {
+            int id = rentalIds.incrementAndGet();
+            storedRentals.put(id, new StoredRental(id, day(date), day(returnDate), 0.0,
+                    Rental.OPEN, Rental.WAITING, new StoredLine[0]));
+            undo(() -> storedRentals.remove(id));
+            return id;
+        }
+
+        @Override
+        public void update(int rental_id, double total, String status) {
+            StoredRental previous = replace(rental_id, rental -> rental.with(total, status, rental.returnStatus));
+            if (previous != null)
+                undo(() -> replace(rental_id, rental -> rental.with(previous.total, previous.status, rental.returnStatus)));
+        }
+
+        @Override
+        public void updateRentalStatus(int rental_id, byte rental_status) {
+            StoredRental previous = replace(rental_id, rental -> rental.with(rental.total, rental.status, rental_status));
+            if (previous != null)
+                undo(() -> replace(rental_id, rental -> rental.with(rental.total, rental.status, previous.returnStatus)));
+        }
+
+        @Override
+        public boolean markReturned(int rental_id) {
+            StoredRental previous = replace(rental_id, rental -> rental.returnStatus == Rental.RETURNED ? rental
+                    : rental.with(rental.total, rental.status, Rental.RETURNED));
+            if (previous == null || previous.returnStatus == Rental.RETURNED)
+                return false;
+            undo(() -> replace(rental_id, rental -> rental.with(rental.total, rental.status, previous.returnStatus)));
+            return true;
+        }
+
+        @Override
+        public void delete(int rental_id) {
+            StoredRental previous = storedRentals.remove(rental_id);
+            if (previous != null)
+                undo(() -> storedRentals.putIfAbsent(rental_id, previous));
+        }
+
+        @Override
+        public Rental getRentalById(int rental_id) throws PersistenceException {
+            StoredRental rental = storedRentals.get(rental_id);
+            if (rental == null)
+                throw new RecordNotFoundException("Rental " + rental_id + " does not exist");
+            return rental.toRental();
+        }
+
+        @Override
+        public List<Rental> getAllRentals() {
+            List<Rental> all = new ArrayList<Rental>(storedRentals.size());
+            for (StoredRental rental : storedRentals.values())
+                all.add(rental.toRental());
+            return all;
+        }
+
+        @Override
+        public List<Rental> getRentalPage(int afterId, int pageSize) {
+            List<Rental> page = new ArrayList<Rental>(pageSize);
+            for (StoredRental rental : storedRentals.tailMap(afterId, false).values()) {
+                if (page.size() == pageSize)
+                    break;
+                page.add(rental.toRental());
+            }
+            return page;
+        }
+
+        @Override
+        public List<OverdueRental> getOverdueRentals(LocalDate asOf) {
+            java.sql.Date hardLimit = java.sql.Date.valueOf(asOf.minusDays(7));
+            java.sql.Date day = java.sql.Date.valueOf(asOf);
+            List<OverdueRental> overdue = new ArrayList<OverdueRental>();
+            for (StoredRental rental : storedRentals.values())
+                if (rental.returnStatus == Rental.WAITING && rental.returnDate.before(day))
+                    overdue.add(rental.toOverdue(rental.returnDate.before(hardLimit)));
+            // the rentals are already ordered by id
+            overdue.sort((a, b) -> a.getReturnDate().compareTo(b.getReturnDate()));
+            return overdue;
+        }
+    }
+
+    /**
+     * The rental products, kept within the record of their rental
+     */
+    private final class RentalLines implements RentalLineRepository {
+
+        @Override
+        public int insert(int rental_id, int prod_id, int qty) throws PersistenceException {
+            return insertAll(rental_id, new int[] { prod_id }, new int[] { qty })[0];
+        }
+
+        @Override
+        public int[] insertAll(int rental_id, int[] prod_ids, int[] qtys) throws PersistenceException {
+            StoredLine[] lines = new StoredLine[prod_ids.length];
+            int[] ids = new int[prod_ids.length];
+            for (int i = 0; i < prod_ids.length; i++) {
+                ids[i] = lineIds.incrementAndGet();
+                lines[i] = new StoredLine(ids[i], product(prod_ids[i]), qtys[i]);
+            }
+            if (storedRentals.computeIfPresent(rental_id, (id, rental) -> rental.withLines(lines)) == null)
+                throw new RecordNotFoundException("Rental " + rental_id + " does not exist");
+            undo(() -> replace(rental_id, rental -> rental.without(lines)));
+            return ids;
+        }
+
+        @Override
+        public void delete(int rental_id) {
+            StoredRental previous = replace(rental_id, StoredRental::withoutLines);
+            if (previous != null && previous.lines.length > 0)
+                undo(() -> replace(rental_id, rental -> rental.withLines(previous.lines)));
+        }
+
+        @Override
+        public List<RentalProduct> getRentalProducts(int rental_id) {
+            List<RentalProduct> result = new ArrayList<RentalProduct>();
+            StoredRental rental = storedRentals.get(rental_id);
+            if (rental != null)
+                for (StoredLine line : rental.lines) {
+                    RentalProduct rentalProduct = new RentalProduct(line.product.copy(), line.qty);
+                    rentalProduct.setId(line.id);
+                    result.add(rentalProduct);
+                }
+            return result;
+        }
+    }
+
+    /**
+     * Replaces the record of a rental, if it exists, atomically
+     *
+     * @return The record replaced, or null if the rental does not exist
+     */
+    private StoredRental replace(int rental_id, UnaryOperator<StoredRental> change) {
+        StoredRental[] previous = new StoredRental[1];
+        storedRentals.computeIfPresent(rental_id, (id, rental) -> {
+            previous[0] = rental;
+            return change.apply(rental);
+        });
+        return previous[0];
+    }
+
+    /**
+     * @return The day of a date, as the database keeps it in a DATE column
+     */
+    private static java.sql.Date day(java.util.Date date) {
+        return java.sql.Date.valueOf(new java.sql.Date(date.getTime()).toLocalDate());
+    }
+
+    /**
+     * A product and its stock
+     */
+    private static final class StoredProduct {
+        final int id;
+        final int itemID;
+        final String description;
+        final double price;
+        final AtomicInteger stock;
+
+        StoredProduct(int id, int itemID, String description, double price, int qty) {
+            this.id = id;
+            this.itemID = itemID;
+            this.description = description;
+            this.price = price;
+            this.stock = new AtomicInteger(qty);
+        }
+
+        /**
+         * Takes units from the stock if there are enough of them
+         */
+        boolean take(int qty) {
+            int current;
+            do {
+                current = stock.get();
+                if (current < qty)
+                    return false;
+            } while (!stock.compareAndSet(current, current - qty));
+            return true;
+        }
+
+        ProductSpec copy() {
+            return new ProductSpec(id, itemID, description, price, stock.get());
+        }
+    }
+
+    /**
+     * A rental product
+     */
+    private static final class StoredLine {
+        final int id;
+        final StoredProduct product;
+        final int qty;
+
+        StoredLine(int id, StoredProduct product, int qty) {
+            this.id = id;
+            this.product = product;
+            this.qty = qty;
+        }
+    }
+
+    /**
+     * A rental and its rental products, never changed once stored
+     */
+    private static final class StoredRental {
+        final int id;
+        final java.sql.Date date;
+        final java.sql.Date returnDate;
+        final double total;
+        final String status;
+        final byte returnStatus;
+        final StoredLine[] lines;
+
+        StoredRental(int id, java.sql.Date date, java.sql.Date returnDate, double total,
+                     String status, byte returnStatus, StoredLine[] lines) {
+            this.id = id;
+            this.date = date;
+            this.returnDate = returnDate;
+            this.total = total;
+            this.status = status;
+            this.returnStatus = returnStatus;
+            this.lines = lines;
+        }
+
+        StoredRental with(double total, String status, byte returnStatus) {
+            return new StoredRental(id, date, returnDate, total, status, returnStatus, lines);
+        }
+
+        StoredRental withLines(StoredLine[] added) {
+            StoredLine[] all = Arrays.copyOf(lines, lines.length + added.length);
+            System.arraycopy(added, 0, all, lines.length, added.length);
+            return new StoredRental(id, date, returnDate, total, status, returnStatus, all);
+        }
+
+        StoredRental without(StoredLine[] removed) {
+            List<StoredLine> kept = new ArrayList<StoredLine>(Arrays.asList(lines));
+            kept.removeAll(Arrays.asList(removed));
+            return new StoredRental(id, date, returnDate, total, status, returnStatus, kept.toArray(new StoredLine[0]));
+        }
+
+        StoredRental withoutLines() {
+            return new StoredRental(id, date, returnDate, total, status, returnStatus, new StoredLine[0]);
+        }
+
+        Rental toRental() {
+            Rental rental = new Rental(id, date, returnDate, lines.length);
+            for (StoredLine line : lines)
+                rental.addProductToRental(line.id, line.product.copy(), line.qty);
+            if (status.equals(Rental.CLOSED))
+                rental.close();
+            if (returnStatus == Rental.RETURNED)
+                rental.returnItems();
+            return rental;
+        }
+
+        /**
+         * @return The summary of the rental if overdue, with the penalty computed
+         * as RentalMapper.getOverdueRentals does
+         */
+        OverdueRental toOverdue(boolean pastHardLimit) {
+            int items = 0;
+            double penalty = 0.0;
+            for (StoredLine line : lines) {
+                double price = line.product.price;
+                items += line.qty;
+                penalty += pastHardLimit ? price * line.qty - line.qty * price * 0.20
+                                         : line.qty * price * 0.20 * 0.5;
+            }
+            return new OverdueRental(id, date, returnDate, items, pastHardLimit, penalty);
+        }
+    }
+
+    /**
+     * The undo log of the changes made by a thread, dropped on commit and run
+     * when closed without a commit, together with the actions that follow the
+     * outcome. A unit of work started within another joins it.
+     */
+    private final class MemoryUnitOfWork implements UnitOfWork {
+        private final boolean joined;
+        private final List<Runnable> undo;
+        private final CompletionActions actions;
+        private boolean done;
+
+        MemoryUnitOfWork(MemoryUnitOfWork outer) {
+            this.joined = outer != null;
+            this.undo = joined ? outer.undo : new ArrayList<Runnable>();
+            this.actions = joined ? outer.actions : new CompletionActions();
+        }
+
+        @Override
+        public void commit() throws PersistenceException {
+            if (done)
+                throw new PersistenceException("Unit of work already finished");
+            done = true;
+            if (joined)
+                return;
+            currentUnit.remove();
+            undo.clear();
+            actions.committed();
+        }
+
+        @Override
+        public void afterCommit(Runnable action) {
+            actions.afterCommit(action);
+        }
+
+        @Override
+        public void afterRollback(Runnable action) {
+            actions.afterRollback(action);
+        }
+
+        @Override
+        public void close() {
+            if (done || joined)
+                return;
+            done = true;
+            currentUnit.remove();
+            try {
+                for (int i = undo.size() - 1; i >= 0; i--)
+                    undo.get(i).run();
+            } finally {
+                undo.clear();
+                actions.rolledBack();
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package dataaccess;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A connection kept by the ConnectionPool together with the cache of the
+ * statements prepared on it, so the cache survives between borrows.
+ *
+ * @author ADS08
+ */
+class PooledConnection {
+
+	private final Connection connection;
+	private final StatementCache statements;
+
+	PooledConnection(Connection connection, StatementCache statements) {
+		this.connection = connection;
+		this.statements = statements;
+	}
+
+	/**
+	 * @return The physical connection to the database
+	 */
+	Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * @return The cache of statements prepared on this connection
+	 */
+	StatementCache getStatements() {
+		return statements;
+	}
+
+	/**
+	 * Closes the cached statements and the connection
+	 */
+	void close() {
+		statements.clear();
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			// nothing that we can do about it...
+		}
+	}
+}
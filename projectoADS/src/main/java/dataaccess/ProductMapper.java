@@ -3,6 +3,15 @@ package dataaccess;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import business.ProductSpec;
 
@@ -13,6 +22,28 @@ import business.ProductSpec;
  */
 public class ProductMapper {
 	
+	// the product table is small and rarely changes, so every product read is kept in
+	// memory, indexed by its database id; the cached objects are never handed out, callers
+	// get copies of them
+	private static final ConcurrentHashMap<Integer, ProductSpec> cachedProducts = 
+			new ConcurrentHashMap<Integer, ProductSpec>();
+	
+	// the database id of each cached product, indexed by its itemID
+	private static final ConcurrentHashMap<Integer, Integer> cachedItemIds = 
+			new ConcurrentHashMap<Integer, Integer>();
+	
+	// counts the stock updates, so that a product read before an update is not cached after it
+	private static final AtomicLong stockUpdates = new AtomicLong();
+	
+	// the products whose stock is changed by transactions not ended yet, with how many of them;
+	// their cached stock is the committed one, and is changed when each transaction commits
+	private static final ConcurrentHashMap<Integer, Integer> changing = 
+			new ConcurrentHashMap<Integer, Integer>();
+	
+	// the products whose stock is changed by the transaction of each thread, which reads them
+	// from the database so that it sees its own changes
+	private static final ThreadLocal<Set<Integer>> changedHere = ThreadLocal.withInitial(HashSet::new);
+	
 	// SQL statement: select product with given id (the database id)
 	private static final String GET_PRODUCT_BY_PROD_ID_SQL = 
 		    "SELECT id, itemID, description, price, qty FROM product WHERE id = ?";
@@ -25,13 +56,18 @@ public class ProductMapper {
 	 * @throws PersistenceException 
 	 */
 	public static ProductSpec getProductById (int id) throws PersistenceException {
+		ProductSpec cached = cached(id);
+		if (cached != null)
+			return copy(cached);
+		
+		long version = stockUpdates.get();
 		try (PreparedStatement Statement = DataSource.INSTANCE.prepare(GET_PRODUCT_BY_PROD_ID_SQL)) {
 			// set statement arguments
 			Statement.setInt(1, id);
 			// execute SQL
 			try (ResultSet rs = Statement.executeQuery()) {
 				// creates a new product with the data retrieved from the database
-				return loadProduct(rs);	
+				return cache(loadProduct(rs), version);	
 			}
 		} catch (SQLException e) {
 			throw new PersistenceException("Internal error getting product with id " + id, e);
@@ -50,19 +86,206 @@ public class ProductMapper {
 	 * @throws PersistenceException 
 	 */
 	public static ProductSpec getProductByProdCod (int item_id) throws PersistenceException {
+		ProductSpec cached = cached(cachedItemIds.get(item_id));
+		if (cached != null)
+			return copy(cached);
+		
+		long version = stockUpdates.get();
 		try (PreparedStatement Statement = DataSource.INSTANCE.prepare(GET_PRODUCT_BY_PROD_COD_SQL)) {
 			// set statement arguments
 			Statement.setInt(1, item_id);
 			// execute SQL
 			try (ResultSet rs = Statement.executeQuery()) {
 				// creates a new product with the data retrieved from the database
-				return loadProduct(rs);	
+				return cache(loadProduct(rs), version);	
 			}
 		} catch (SQLException e) {
 			throw new PersistenceException("Internal error getting product with id " + item_id, e);
 		}
 	}
 	
+	// SQL statement: select the products with some given codes (the list of codes is appended)
+	private static final String GET_PRODUCTS_BY_PROD_CODS_SQL = 
+		    "SELECT id, itemID, description, price, qty FROM product WHERE itemID IN ";
+	
+	/**
+	 * Gets several products given their codes. Products not cached are read
+	 * with a single query.
+	 * 
+	 * @param item_ids The codes of the products to search for
+	 * @return The in-memory representation of the products found, indexed by their code.
+	 * Codes of products that do not exist are not in the result.
+	 * @throws PersistenceException 
+	 */
+	public static Map<Integer, ProductSpec> getProductsByProdCods (Collection<Integer> item_ids) throws PersistenceException {
+		Map<Integer, ProductSpec> products = new HashMap<Integer, ProductSpec>();
+		List<Integer> missing = new ArrayList<Integer>();
+		for (int item_id : item_ids) {
+			ProductSpec cached = cached(cachedItemIds.get(item_id));
+			if (cached != null)
+				products.put(item_id, copy(cached));
+			else
+				missing.add(item_id);
+		}
+		if (missing.isEmpty())
+			return products;
+		
+		StringBuilder sql = new StringBuilder(GET_PRODUCTS_BY_PROD_CODS_SQL).append('(');
+		for (int i = 0; i < missing.size(); i++)
+			sql.append(i == 0 ? "?" : ", ?");
+		sql.append(')');
+		
+		long version = stockUpdates.get();
+		try (PreparedStatement statement = DataSource.INSTANCE.prepare(sql.toString())) {
+			// set statement arguments
+			for (int i = 0; i < missing.size(); i++)
+				statement.setInt(i + 1, missing.get(i));
+			// execute SQL
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					ProductSpec product = new ProductSpec(rs.getInt("id"), 
+							                              rs.getInt("itemID"),
+							                              rs.getString("description"),
+							                              rs.getDouble("price"),
+							                              rs.getInt("qty"));
+					products.put(product.getProductCode(), cache(product, version));
+				}
+			}
+		} catch (SQLException e) {
+			throw new PersistenceException("Internal error getting products " + missing, e);
+		}
+		return products;
+	}
+	
+	/**
+	 * @param id The database id of a product, or null if unknown
+	 * @return The cached product, unless the transaction of the calling thread
+	 * changed its stock, or null
+	 */
+	private static ProductSpec cached(Integer id) {
+		if (id == null)
+			return null;
+		ProductSpec cached = cachedProducts.get(id);
+		if (cached == null)
+			return null;
+		Set<Integer> changed = changedHere.get();
+		return changed.isEmpty() || !changed.contains(id) ? cached : null;
+	}
+	
+	/**
+	 * Keeps a copy of a product just read from the database, unless its stock was
+	 * updated meanwhile (the value read might then be outdated) or is being changed
+	 * by some transaction (the value read might then not be committed).
+	 * 
+	 * @param product The product read from the database
+	 * @param version The number of stock updates before the product was read
+	 * @return The product
+	 */
+	private static ProductSpec cache(ProductSpec product, long version) {
+		cachedProducts.compute(product.getId(), (id, cached) -> 
+			cached != null || stockUpdates.get() != version || changing.containsKey(id) ? cached : copy(product));
+		cachedItemIds.putIfAbsent(product.getProductCode(), product.getId());
+		return product;
+	}
+	
+	/**
+	 * Updates the stock of a cached product after it was updated in the database.
+	 * Within a transaction, the product is forgotten once the transaction commits.
+	 * 
+	 * @param prod_id The database id of the product
+	 * @param qty The new stock quantity
+	 */
+	private static void cacheStock(int prod_id, int qty) {
+		if (changeOnCommit(prod_id, () -> {
+			stockUpdates.incrementAndGet();
+			cachedProducts.remove(prod_id);    // other changes may commit in any order
+		}))
+			return;
+		cachedProducts.compute(prod_id, (id, cached) -> {
+			stockUpdates.incrementAndGet();
+			return cached == null ? null : withStock(cached, qty);
+		});
+	}
+	
+	/**
+	 * Adds a quantity to the stock of a cached product after the same change was
+	 * made in the database. Within a transaction, it is added once the transaction
+	 * commits.
+	 * 
+	 * @param prod_id The database id of the product
+	 * @param delta The quantity added (negative when stock is taken)
+	 */
+	private static void cacheStockChange(int prod_id, int delta) {
+		if (changeOnCommit(prod_id, () -> addStock(prod_id, delta)))
+			return;
+		addStock(prod_id, delta);
+	}
+	
+	private static void addStock(int prod_id, int delta) {
+		cachedProducts.compute(prod_id, (id, cached) -> {
+			stockUpdates.incrementAndGet();
+			return cached == null ? null : withStock(cached, cached.getStock() + delta);
+		});
+	}
+	
+	/**
+	 * Defers the change to a cached product made by the transaction of the calling
+	 * thread, if any, until it commits; meanwhile other threads keep reading the
+	 * committed stock from the cache, and the product is not cached again.
+	 * 
+	 * @param prod_id The database id of the product
+	 * @param change The change to the cached product
+	 * @return Whether the calling thread runs a transaction
+	 */
+	private static boolean changeOnCommit(int prod_id, Runnable change) {
+		if (!DataSource.INSTANCE.isInTransaction())
+			return false;
+		DatabaseUnitOfWork unit = DatabaseUnitOfWork.current();
+		if (unit == null) {    // a transaction of its own, whose end is not known
+			stockUpdates.incrementAndGet();
+			cachedProducts.remove(prod_id);
+			return true;
+		}
+		changing.merge(prod_id, 1, Integer::sum);
+		changedHere.get().add(prod_id);
+		unit.afterCommit(() -> {
+			try {
+				change.run();
+			} finally {
+				changed(prod_id);
+			}
+		});
+		unit.afterRollback(() -> changed(prod_id));
+		return true;
+	}
+	
+	/**
+	 * Ends a change to the stock of a product once its transaction ended
+	 */
+	private static void changed(int prod_id) {
+		changing.computeIfPresent(prod_id, (id, count) -> count == 1 ? null : count - 1);
+		changedHere.get().remove(prod_id);
+	}
+	
+	/**
+	 * Forgets every cached product, e.g. after the product table was changed
+	 * without going through this mapper.
+	 */
+	public static void clearCache() {
+		stockUpdates.incrementAndGet();
+		cachedProducts.clear();
+		cachedItemIds.clear();
+	}
+	
+	private static ProductSpec copy(ProductSpec product) {
+		return withStock(product, product.getStock());
+	}
+	
+	private static ProductSpec withStock(ProductSpec product, int qty) {
+		return new ProductSpec(product.getId(), product.getProductCode(), 
+				               product.getDescription(), product.getPrice(), qty);
+	}
+	
 	/**
 	 * Creates a product from a result set retrieved from the database.
 	 * 
@@ -84,6 +307,23 @@ public class ProductMapper {
 		}
 	}
 	
+	/**
+	 * Creates a product from the current row of a query that joins the product
+	 * table with other tables. The row must have the columns product_id, itemID,
+	 * description, price and stock.
+	 * 
+	 * @param rs The result set positioned on the row with the product
+	 * @return A new product loaded from the row
+	 * @throws SQLException When there is an error reading from the database.
+	 */
+	static ProductSpec loadJoinedProduct(ResultSet rs) throws SQLException {
+		return new ProductSpec(rs.getInt("product_id"), 
+				               rs.getInt("itemID"),
+				               rs.getString("description"),
+				               rs.getDouble("price"),
+				               rs.getInt("stock"));
+	}
+	
 	// SQL statement: update product stock
 	private static final String	UPDATE_STOCK_SQL =
 			"UPDATE product SET qty = ? WHERE id = ?";
@@ -103,5 +343,126 @@ public class ProductMapper {
 		} catch (SQLException e) {
 			throw new PersistenceException("Internal error updating product " + prod_id + " stock amount. ", e);
 		}
+		cacheStock(prod_id, qty);  // write through, or evict within a transaction
+	}
+	
+	// SQL statement: take units from the product stock, if there are enough of them
+	private static final String DECREASE_STOCK_SQL =
+			"UPDATE product SET qty = qty - ? WHERE id = ? AND qty >= ?";
+	
+	/**
+	 * Takes units from the product stock with a single conditional update, so
+	 * concurrent rentals of the same product can neither lose updates nor 
+	 * take more units than the ones in stock.
+	 * 
+	 * @param prod_id The database id of the product
+	 * @param qty The number of units to take
+	 * @return Whether the stock had enough units (otherwise it is left unchanged)
+	 * @throws PersistenceException
+	 */
+	public static boolean decreaseStock(int prod_id, int qty) throws PersistenceException {
+		int updated;
+		try (PreparedStatement statement = DataSource.INSTANCE.prepare(DECREASE_STOCK_SQL)) {
+			// set statement arguments
+			statement.setInt(1, qty);
+			statement.setInt(2, prod_id);
+			statement.setInt(3, qty);
+			// execute SQL
+			updated = statement.executeUpdate();
+		} catch (SQLException e) {
+			throw new PersistenceException("Internal error updating product " + prod_id + " stock amount. ", e);
+		}
+		if (updated == 0)
+			return false;
+		cacheStockChange(prod_id, -qty);
+		return true;
+	}
+	
+	// SQL statement: give units back to the product stock
+	private static final String INCREASE_STOCK_SQL =
+			"UPDATE product SET qty = qty + ? WHERE id = ?";
+	
+	/**
+	 * Gives units back to the product stock with a single update
+	 * 
+	 * @param prod_id The database id of the product
+	 * @param qty The number of units to give back
+	 * @throws RecordNotFoundException If the product does not exist
+	 * @throws PersistenceException
+	 */
+	public static void increaseStock(int prod_id, int qty) throws PersistenceException {
+		int updated;
+		try (PreparedStatement statement = DataSource.INSTANCE.prepare(INCREASE_STOCK_SQL)) {
+			// set statement arguments
+			statement.setInt(1, qty);
+			statement.setInt(2, prod_id);
+			// execute SQL
+			updated = statement.executeUpdate();
+		} catch (SQLException e) {
+			throw new PersistenceException("Internal error updating product " + prod_id + " stock amount. ", e);
+		}
+		if (updated == 0)
+			throw new RecordNotFoundException("Product " + prod_id + " does not exist");
+		cacheStockChange(prod_id, qty);
+	}
+	
+	/**
+	 * Takes units from the stock of several products, sending all the conditional
+	 * updates to the database in a single batch.
+	 * 
+	 * @requires The calling thread runs a unit of work, which must be rolled back
+	 * when the result is false, since stocks with enough units were already updated.
+	 * @param prod_ids The database ids of the products
+	 * @param qtys The number of units to take from each product
+	 * @return Whether all stocks had enough units
+	 * @throws PersistenceException
+	 */
+	public static boolean decreaseStocks(int[] prod_ids, int[] qtys) throws PersistenceException {
+		int[] updated;
+		try (PreparedStatement statement = DataSource.INSTANCE.prepare(DECREASE_STOCK_SQL)) {
+			for (int i = 0; i < prod_ids.length; i++) {
+				statement.setInt(1, qtys[i]);
+				statement.setInt(2, prod_ids[i]);
+				statement.setInt(3, qtys[i]);
+				statement.addBatch();
+			}
+			updated = statement.executeBatch();
+		} catch (SQLException e) {
+			throw new PersistenceException("Internal error updating the stock amount of products", e);
+		}
+		for (int count : updated)
+			if (count == 0)
+				return false;
+		for (int i = 0; i < prod_ids.length; i++)
+			cacheStockChange(prod_ids[i], -qtys[i]);
+		return true;
+	}
+	
+	/**
+	 * Gives units back to the stock of several products, sending all the updates
+	 * to the database in a single batch.
+	 * 
+	 * @param prod_ids The database ids of the products
+	 * @param qtys The number of units to give back to each product
+	 * @throws RecordNotFoundException If some product does not exist
+	 * @throws PersistenceException
+	 */
+	public static void increaseStocks(int[] prod_ids, int[] qtys) throws PersistenceException {
+		int[] updated;
+		try (PreparedStatement statement = DataSource.INSTANCE.prepare(INCREASE_STOCK_SQL)) {
+			for (int i = 0; i < prod_ids.length; i++) {
+				statement.setInt(1, qtys[i]);
+				statement.setInt(2, prod_ids[i]);
+				statement.addBatch();
+			}
+			updated = statement.executeBatch();
+		} catch (SQLException e) {
+			throw new PersistenceException("Internal error updating the stock amount of products", e);
+		}
+		for (int i = 0; i < prod_ids.length; i++) {
+			if (updated[i] == 0)
+				throw new RecordNotFoundException("Product " + prod_ids[i] + " does not exist");
+			cacheStockChange(prod_ids[i], qtys[i]);
+		}
 	}
 }
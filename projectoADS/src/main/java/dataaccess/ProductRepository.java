@@ -0,0 +1,93 @@
+package dataaccess;
+
+import java.util.Collection;
+import java.util.Map;
+
+import business.ProductSpec;
+
+/**
+ * The products kept by a storage, and their stock
+ *
+ * @author ADS08
+ */
+public interface ProductRepository {
+
+    /**
+     * Gets a product given its id
+     *
+     * @param id The id of the product
+     * @return A copy of the product, that can be changed by the caller
+     * @throws RecordNotFoundException If the product does not exist
+     * @throws PersistenceException In case the product cannot be read
+     */
+    ProductSpec getProductById(int id) throws PersistenceException;
+
+    /**
+     * Gets a product given its itemID
+     *
+     * @param itemID The itemID of the product
+     * @return A copy of the product, that can be changed by the caller
+     * @throws RecordNotFoundException If the product does not exist
+     * @throws PersistenceException In case the product cannot be read
+     */
+    ProductSpec getProductByProdCod(int itemID) throws PersistenceException;
+
+    /**
+     * Gets several products given their itemIDs
+     *
+     * @param itemIDs The itemIDs of the products
+     * @return Copies of the products that exist, indexed by itemID
+     * @throws PersistenceException In case the products cannot be read
+     */
+    Map<Integer, ProductSpec> getProductsByProdCods(Collection<Integer> itemIDs) throws PersistenceException;
+
+    /**
+     * Sets the stock of a product
+     *
+     * @param prod_id The id of the product
+     * @param qty     The new stock
+     * @throws PersistenceException In case the stock cannot be updated
+     */
+    void updateStockValue(int prod_id, int qty) throws PersistenceException;
+
+    /**
+     * Takes units from the stock of a product, if it has enough of them
+     *
+     * @param prod_id The id of the product
+     * @param qty     The number of units to take
+     * @return Whether the stock was enough, and so was updated
+     * @throws PersistenceException In case the stock cannot be updated
+     */
+    boolean decreaseStock(int prod_id, int qty) throws PersistenceException;
+
+    /**
+     * Gives units back to the stock of a product
+     *
+     * @param prod_id The id of the product
+     * @param qty     The number of units to give back
+     * @throws RecordNotFoundException If the product does not exist
+     * @throws PersistenceException In case the stock cannot be updated
+     */
+    void increaseStock(int prod_id, int qty) throws PersistenceException;
+
+    /**
+     * Takes units from the stock of several products, if they all have enough
+     * of them. Either all stocks are updated or none is.
+     *
+     * @param prod_ids The ids of the products
+     * @param qtys     The number of units to take from each product
+     * @return Whether the stock of every product was enough
+     * @throws PersistenceException In case the stocks cannot be updated
+     */
+    boolean decreaseStocks(int[] prod_ids, int[] qtys) throws PersistenceException;
+
+    /**
+     * Gives units back to the stock of several products
+     *
+     * @param prod_ids The ids of the products
+     * @param qtys     The number of units to give back to each product
+     * @throws RecordNotFoundException If some product does not exist
+     * @throws PersistenceException In case the stocks cannot be updated
+     */
+    void increaseStocks(int[] prod_ids, int[] qtys) throws PersistenceException;
+}
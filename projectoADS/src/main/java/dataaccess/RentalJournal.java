@@ -0,0 +1,206 @@
+package dataaccess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records kept in a memory-mapped file.
+ *
+ * The file starts with a header holding the generation of the journal,
+ * followed by the records, each one made of its length, the generation it
+ * was written in, a CRC32 checksum and its payload. A record is durable as
+ * soon as it is copied to the mapped buffer, as far as the process is
+ * concerned; forcing the buffer makes it survive a crash of the machine too.
+ *
+ * Once every record was consumed the journal can be reset: the generation is
+ * incremented and records are written from the start again. Records of older
+ * generations left in the file are then ignored when reading it.
+ *
+ * Appends are serialized by the journal's monitor; records below the tail
+ * can be read by any thread.
+ *
+ * @author ADS08
+ */
+class RentalJournal implements AutoCloseable {
+
+    private static final int MAGIC = 0x524a4e4c;    // "RJNL"
+    private static final int MAGIC_POSITION = 0;
+    private static final int GENERATION_POSITION = 4;
+
+    // where the first record starts
+    static final int HEADER_SIZE = 16;
+
+    // length, generation and checksum
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final boolean force;
+
+    private volatile long generation;
+    private volatile int tail;
+
+    // the number of appends waiting for room
+    private int waiting;
+
+    /**
+     * Opens a journal file, creating it if it does not exist
+     *
+     * @param file     The journal file
+     * @param capacity The size of the file, in bytes
+     * @param force    Whether each append is forced to the storage device
+     * @throws IOException In case the file cannot be opened or mapped
+     */
+    RentalJournal(Path file, int capacity, boolean force) throws IOException {
+        if (capacity <= HEADER_SIZE + RECORD_HEADER_SIZE)
+            throw new IllegalArgumentException("Invalid journal capacity " + capacity);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+        this.force = force;
+        if (buffer.getInt(MAGIC_POSITION) == MAGIC) {
+            generation = buffer.getLong(GENERATION_POSITION);
+        } else {
+            buffer.putInt(MAGIC_POSITION, MAGIC);
+            buffer.putLong(GENERATION_POSITION, generation);
+        }
+        this.tail = HEADER_SIZE;
+    }
+
+    /**
+     * @return The generation of the records currently written
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return The offset after the last record appended
+     */
+    int getTail() {
+        return tail;
+    }
+
+    /**
+     * Finds the end of the valid records of the current generation from a given
+     * offset, and continues appending from there. Used when opening the journal.
+     *
+     * @param from The offset of a record of the current generation
+     * @return The offset after the last valid record
+     */
+    synchronized int recover(int from) {
+        int end = from;
+        while (read(end) != null)
+            end = next(end);
+        tail = end;
+        return end;
+    }
+
+    /**
+     * Appends a record
+     *
+     * @param payload The content of the record
+     * @return The offset after the record
+     * @throws InterruptedException If interrupted while waiting for the
+     *                              records to be consumed, when the journal is full
+     */
+    synchronized int append(byte[] payload) throws InterruptedException {
+        int size = RECORD_HEADER_SIZE + payload.length;
+        if (HEADER_SIZE + size > buffer.capacity())
+            throw new IllegalArgumentException("Journal record too large: " + payload.length + " bytes");
+        while (tail + size > buffer.capacity()) {
+            waiting++;
+            try {
+                wait();    // until reset by the consumer of the records
+            } finally {
+                waiting--;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer record = buffer.duplicate();
+        record.position(tail + 4);
+        record.putLong(generation);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        // the length goes last, so that a record is never seen half written
+        buffer.putInt(tail, payload.length);
+        if (force)
+            buffer.force();
+        tail += size;
+        return tail;
+    }
+
+    /**
+     * Reads a record
+     *
+     * @param offset The offset of the record
+     * @return The payload of the record, or null if there is no valid record
+     *         of the current generation at that offset
+     */
+    byte[] read(int offset) {
+        if (offset + RECORD_HEADER_SIZE > buffer.capacity())
+            return null;
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset);
+        int length = record.getInt();
+        long recordGeneration = record.getLong();
+        int checksum = record.getInt();
+        if (length <= 0 || length > record.remaining() || recordGeneration != generation)
+            return null;
+        byte[] payload = new byte[length];
+        record.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    /**
+     * @param offset The offset of a valid record
+     * @return The offset of the record that follows it
+     */
+    int next(int offset) {
+        return offset + RECORD_HEADER_SIZE + buffer.getInt(offset);
+    }
+
+    /**
+     * Starts a new generation if every record was consumed and the journal is
+     * at least half full, or some append is waiting for room
+     *
+     * @param consumed The offset up to which the records were consumed
+     * @return Whether the journal was reset
+     */
+    synchronized boolean resetIfConsumed(int consumed) {
+        if (consumed != tail || (tail <= buffer.capacity() / 2 && waiting == 0))
+            return false;
+        reset(generation + 1);
+        return true;
+    }
+
+    /**
+     * Starts a new generation, writing records from the start of the file again
+     *
+     * @param newGeneration The new generation, greater than the current one
+     */
+    synchronized void reset(long newGeneration) {
+        generation = newGeneration;
+        buffer.putLong(GENERATION_POSITION, generation);
+        buffer.force();
+        tail = HEADER_SIZE;
+        notifyAll();
+    }
+
+    /**
+     * Forces the records appended so far to the storage device and closes the file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
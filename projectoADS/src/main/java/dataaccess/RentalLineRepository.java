@@ -0,0 +1,54 @@
+package dataaccess;
+
+import java.util.List;
+
+import business.RentalProduct;
+
+/**
+ * The rental products (the lines of the rentals) kept by a storage
+ *
+ * @author ADS08
+ */
+public interface RentalLineRepository {
+
+    /**
+     * Adds a product to a rental
+     *
+     * @param rental_id The id of the rental
+     * @param prod_id   The id of the product
+     * @param qty       The number of units rented
+     * @return The id of the rental product
+     * @throws PersistenceException In case the rental or the product do not
+     *                              exist, or the rental product cannot be added
+     */
+    int insert(int rental_id, int prod_id, int qty) throws PersistenceException;
+
+    /**
+     * Adds several products to a rental
+     *
+     * @param rental_id The id of the rental
+     * @param prod_ids  The ids of the products
+     * @param qtys      The number of units rented of each product
+     * @return The ids of the rental products, in the order of prod_ids
+     * @throws PersistenceException In case the rental or some product do not
+     *                              exist, or the rental products cannot be added
+     */
+    int[] insertAll(int rental_id, int[] prod_ids, int[] qtys) throws PersistenceException;
+
+    /**
+     * Removes the products of a rental
+     *
+     * @param rental_id The id of the rental
+     * @throws PersistenceException In case the rental products cannot be removed
+     */
+    void delete(int rental_id) throws PersistenceException;
+
+    /**
+     * Gets the products of a rental
+     *
+     * @param rental_id The id of the rental
+     * @return The rental products, ordered by id
+     * @throws PersistenceException In case the rental products cannot be read
+     */
+    List<RentalProduct> getRentalProducts(int rental_id) throws PersistenceException;
+}
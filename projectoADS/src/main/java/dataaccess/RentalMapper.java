@@ -1,13 +1,15 @@
 package dataaccess;
 
+import business.OverdueRental;
 import business.Rental;
-import business.RentalProduct;
 
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -18,12 +20,67 @@ import java.util.Map;
  */
 public class RentalMapper {
 
-    // the cache keeps all rentals that were accessed during the current runtime
-    static Map<Integer, Rental> cachedRentals;
+    // the default number of rentals kept in the cache
+    public static final int DEFAULT_CACHE_SIZE = 10000;
 
-    static {
-        // this code is initialized once per class
-        cachedRentals = new HashMap<Integer, Rental>();
+    // the cache keeps the rentals most recently accessed during the current runtime
+    private static volatile Cache<Integer, Rental> cachedRentals = new LruCache<Integer, Rental>(DEFAULT_CACHE_SIZE);
+
+    /**
+     * Replaces the cache of rentals, e.g. to change its bounds. Rentals cached
+     * so far are dropped.
+     *
+     * @param cache The new (empty) cache
+     */
+    public static void setCache(Cache<Integer, Rental> cache) {
+        cachedRentals = cache;
+    }
+
+    /**
+     * Forgets every cached rental, e.g. after changes to rentals were rolled back
+     */
+    public static void clearCache() {
+        cachedRentals.clear();
+    }
+
+    /**
+     * Forgets a cached rental, after it was changed without going through this mapper
+     *
+     * @param rental_id The id of the rental
+     */
+    static void evict(int rental_id) {
+        cachedRentals.remove(rental_id);
+    }
+
+    /**
+     * Forgets a cached rental changed in the database, and has the unit of work
+     * of the calling thread, if any, forget it again if the change is rolled back
+     *
+     * @param rental_id The id of the rental
+     */
+    static void changed(int rental_id) {
+        cachedRentals.remove(rental_id);
+        evictOnRollback(rental_id);
+    }
+
+    /**
+     * Has the unit of work of the calling thread, if any, forget a cached rental
+     * if it is rolled back, e.g. after products were added to the rental, which
+     * the cached rental takes in place
+     *
+     * @param rental_id The id of the rental
+     */
+    static void evictOnRollback(int rental_id) {
+        DatabaseUnitOfWork unit = DatabaseUnitOfWork.current();
+        if (unit != null)
+            unit.rentalChanged(rental_id);
+    }
+
+    /**
+     * @return The hit, miss and eviction counters of the rental cache
+     */
+    public static CacheStats getCacheStats() {
+        return cachedRentals.getStats();
     }
 
     /////////////////////////////////////////////////////////////////////////
@@ -49,7 +106,9 @@ public class RentalMapper {
             // get sale Id generated automatically by the database engine
             try (ResultSet rs = statement.getGeneratedKeys()) {
                 rs.next();
-                return rs.getInt(1);
+                int rental_id = rs.getInt(1);
+                changed(rental_id);
+                return rental_id;
             }
         } catch (SQLException e) {
             throw new PersistenceException("Error inserting a new rental!", e);
@@ -79,7 +138,7 @@ public class RentalMapper {
             throw new PersistenceException("Internal error!", e);
         }
 
-        cachedRentals.remove(rental_id);  // rental was changed, remove from cache
+        changed(rental_id);  // rental was changed, remove from cache
     }
 
     /////////////////////////////////////////////////////////////////////////
@@ -103,7 +162,34 @@ public class RentalMapper {
             throw new PersistenceException("Internal Error!", e);
         }
 
-        cachedRentals.remove(rental_id);  // rental was changed, remove from cache
+        changed(rental_id);  // rental was changed, remove from cache
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statement: sets a rental as returned, unless it already is
+    private static final String MARK_RENTAL_RETURNED_SQL =
+            "UPDATE rental SET return_status = " + Rental.RETURNED + " WHERE id = ? AND return_status <> " + Rental.RETURNED;
+
+    /**
+     * Sets a rental as returned in the database, unless it already is. The
+     * rental stays locked until the transaction ends, so a concurrent return
+     * of the same rental waits for it and then finds it returned.
+     *
+     * @param rental_id The rental id to update
+     * @return Whether the rental was set as returned
+     * @throws PersistenceException
+     */
+    public static boolean markReturned(int rental_id) throws PersistenceException {
+        int updated;
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(MARK_RENTAL_RETURNED_SQL)) {
+            statement.setInt(1, rental_id);
+            updated = statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new PersistenceException("Internal error returning rental " + rental_id, e);
+        }
+
+        changed(rental_id);  // rental was changed, remove from cache
+        return updated == 1;
     }
 
     /////////////////////////////////////////////////////////////////////////
@@ -129,16 +215,28 @@ public class RentalMapper {
             throw new PersistenceException("Internal error!", e);
         }
 
-        cachedRentals.remove(rental_id);  // rental was deleted, remove from cache
+        changed(rental_id);  // rental was deleted, remove from cache
     }
 
     /////////////////////////////////////////////////////////////////////////
-    // SQL statement: selects a rental by its id
+    // SQL statement: counts the rental products of the rental of the row, so that room for them is made upfront
+    private static final String LINES_OF_RENTAL_SQL =
+            "(SELECT COUNT(*) FROM rentalproduct c WHERE c.rental_id = r.id) AS lines";
+
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statement: selects a rental by its id, together with its rental products
     private static final String GET_RENTAL_SQL =
-            "SELECT id, date, return_date, total, status, return_status FROM rental WHERE id = ?";
+            "SELECT r.id, r.date, r.return_date, r.total, r.status, r.return_status, " + LINES_OF_RENTAL_SQL + ", " +
+                    "rp.id AS line_id, rp.qty AS line_qty, " +
+                    "p.id AS product_id, p.itemID, p.description, p.price, p.qty AS stock " +
+            "FROM rental r " +
+                    "LEFT JOIN rentalproduct rp ON rp.rental_id = r.id " +
+                    "LEFT JOIN product p ON p.id = rp.product_id " +
+            "WHERE r.id = ? ORDER BY rp.id";
 
     /**
-     * Gets a rental by its id
+     * Gets a rental by its id. The rental, its rental products and their
+     * products are fetched with a single query.
      *
      * @param rental_id The rental id to search for
      * @return The new object that represents an in-memory rental
@@ -146,16 +244,18 @@ public class RentalMapper {
      */
     public static Rental getRentalById(int rental_id) throws PersistenceException {
 
-        if (cachedRentals.containsKey(rental_id))  // perhaps this rental is cached?
-            return cachedRentals.get(rental_id);   //  yes, we don't need to query the database
+        Rental cached = cachedRentals.get(rental_id);  // perhaps this rental is cached?
+        if (cached != null)
+            return cached;                             //  yes, we don't need to query the database
 
         try (PreparedStatement statement = DataSource.INSTANCE.prepare(GET_RENTAL_SQL)) {
             // set statement arguments
             statement.setInt(1, rental_id);
             // execute SQL
             try (ResultSet rs = statement.executeQuery()) {
-                rs.next();
-                Rental rental = loadRental(rs);             // creates rental object from result set
+                if (!rs.next())
+                    throw new RecordNotFoundException("Rental " + rental_id + " does not exist");
+                Rental rental = loadJoinedRental(rs);       // creates rental object from result set
                 cachedRentals.put(rental.getId(), rental);  // inserts it into cache
                 return rental;
             }
@@ -164,65 +264,187 @@ public class RentalMapper {
         }
     }
 
+    /**
+     * Creates a rental object from the rows of a query joining the rental with
+     * its rental products and their products, one row per rental product.
+     *
+     * @param rs The result set with the information to create the rental.
+     * @return A new rental loaded from the database.
+     * @throws SQLException When there is an error reading from the database.
+     * @requires rs.next() was already executed
+     */
+    private static Rental loadJoinedRental(ResultSet rs) throws SQLException {
+        Rental rental = new Rental(rs.getInt("id"), rs.getDate("date"), rs.getDate("return_date"), rs.getInt("lines"));
+        String status = rs.getString("status");
+        byte returnStatus = rs.getByte("return_status");
+
+        do {
+            int line_id = rs.getInt("line_id");
+            if (!rs.wasNull())  // a rental without products still has one row
+                rental.addProductToRental(line_id, ProductMapper.loadJoinedProduct(rs), rs.getInt("line_qty"));
+        } while (rs.next());
+
+        setStatus(rental, status, returnStatus);
+        return rental;
+    }
+
     /////////////////////////////////////////////////////////////////////////
     // SQL statement: get all rentals
-    private static final String GET_ALL_RENTALS_SQL = "SELECT * FROM rental";
+    private static final String GET_ALL_RENTALS_SQL =
+            "SELECT r.id, r.date, r.return_date, r.total, r.status, r.return_status, " + LINES_OF_RENTAL_SQL + " " +
+            "FROM rental r ORDER BY r.id";
 
     /**
-     * Retrieve all rentals kept on database
+     * Retrieve all rentals kept on database. The rentals, and then the rental
+     * products of the ones not cached joined with their products, are fetched
+     * with one query each, whatever the number of rentals, and put together
+     * in memory.
      *
-     * @return A list with all the rentals
+     * @return A list with all the rentals, ordered by id
      * @throws PersistenceException
      */
     public static List<Rental> getAllRentals() throws PersistenceException {
 
+        List<Rental> rentals = new ArrayList<Rental>();
+        Map<Integer, Rental> loaded = new HashMap<Integer, Rental>();    // rentals not found in the cache
+
         try (PreparedStatement statement = DataSource.INSTANCE.prepare(GET_ALL_RENTALS_SQL)) {
             try (ResultSet rs = statement.executeQuery()) {
-
-                List<Rental> rentals = new LinkedList<Rental>();
                 while (rs.next()) { // for each rental
                     int rental_id = rs.getInt("id");          // get id of current rental
-                    if (cachedRentals.containsKey(rental_id))   // check if it is cached
-                        rentals.add(cachedRentals.get(rental_id));
-                    else {
-                        Rental rental = loadRental(rs);           // if not, create a new rental object
-                        rentals.add(rental);                    //  insert it to result list,
-                        cachedRentals.put(rental_id, rental);     //  and cache it
+                    Rental rental = cachedRentals.get(rental_id);  // check if it is cached
+                    if (rental == null) {
+                        rental = new Rental(rental_id, rs.getDate("date"), rs.getDate("return_date"), rs.getInt("lines"));
+                        setStatus(rental, rs.getString("status"), rs.getByte("return_status"));
+                        loaded.put(rental_id, rental);
                     }
+                    rentals.add(rental);
                 }
-                return rentals;
             }
         } catch (SQLException e) {
             throw new PersistenceException("Unable to fetch all rentals", e);
         }
+
+        if (!loaded.isEmpty()) {
+            // fill the new rentals with their rental products, then cache them
+            RentalProductMapper.addRentalProducts(loaded);
+            cachedRentals.putAll(loaded);
+        }
+        return rentals;
     }
 
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statement: get the rentals following a given id (keyset pagination)
+    private static final String GET_RENTAL_PAGE_SQL =
+            "SELECT r.id, r.date, r.return_date, r.total, r.status, r.return_status, " + LINES_OF_RENTAL_SQL + " " +
+            "FROM rental r WHERE r.id > ? ORDER BY r.id FETCH NEXT ? ROWS ONLY";
+
     /**
-     * Creates a rental object from a result set retrieved from the database.
+     * Retrieve a page of rentals: the rentals with the smallest ids greater than
+     * a given one. Listing all rentals page by page, passing the id of the last
+     * rental of each page to get the next one, keeps memory use bounded by the
+     * page size however many rentals there are, and each page costs two queries.
+     * The rentals of a page are not added to the cache.
      *
-     * @param rs The result set with the information to create the rental.
-     * @return A new rental loaded from the database.
+     * @param afterId  The id after which the page starts (0 for the first page)
+     * @param pageSize The maximum number of rentals in the page
+     * @return The rentals of the page, ordered by id. A page smaller than
+     *         pageSize is the last one.
      * @throws PersistenceException
-     * @requires rs.next() was already executed
      */
-    private static Rental loadRental(ResultSet rs) throws PersistenceException {
-        Rental rental;
-        try {
-            rental = new Rental(rs.getInt("id"), rs.getDate("date"), rs.getDate("return_date"));
+    public static List<Rental> getRentalPage(int afterId, int pageSize) throws PersistenceException {
+
+        List<Rental> rentals = new ArrayList<Rental>(pageSize);
+        Map<Integer, Rental> loaded = new HashMap<Integer, Rental>();    // rentals not found in the cache
+
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(GET_RENTAL_PAGE_SQL)) {
+            statement.setInt(1, afterId);
+            statement.setInt(2, pageSize);
+            statement.setFetchSize(pageSize);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    int rental_id = rs.getInt("id");
+                    Rental rental = cachedRentals.get(rental_id);
+                    if (rental == null) {
+                        rental = new Rental(rental_id, rs.getDate("date"), rs.getDate("return_date"), rs.getInt("lines"));
+                        setStatus(rental, rs.getString("status"), rs.getByte("return_status"));
+                        loaded.put(rental_id, rental);
+                    }
+                    rentals.add(rental);
+                }
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException("Unable to fetch the rentals after " + afterId, e);
+        }
 
-            List<RentalProduct> rentalProducts = RentalProductMapper.getRentalProducts(rs.getInt("id"));
-            for (RentalProduct rp : rentalProducts)
-                rental.addProductToRental(rp.getProduct(), (int) rp.getQty());
+        if (!loaded.isEmpty())
+            RentalProductMapper.addRentalProductsInRange(loaded,
+                    rentals.get(0).getId(), rentals.get(rentals.size() - 1).getId());
+        return rentals;
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statement: get the unreturned rentals past their return date, with their penalty.
+    // The penalty of a line is half its price up to 7 days late (soft limit) and the full
+    // price of the products minus the price of the line after that (hard limit), as in
+    // Rental.penalty. The first parameter is the hard limit date, the second the date of
+    // reference; the IDX_RENTAL_RETURN index selects the rentals.
+    private static final String GET_OVERDUE_RENTALS_SQL =
+            "SELECT r.id, r.date, r.return_date, " +
+            "COALESCE(SUM(rp.qty), 0) AS items, " +
+            "COALESCE(SUM(CASE WHEN r.return_date < CAST(? AS DATE) " +
+            "THEN p.price * rp.qty - rp.qty * p.price * 0.20 " +
+            "ELSE rp.qty * p.price * 0.20 * 0.5 END), 0) AS penalty " +
+            "FROM rental r " +
+            "LEFT JOIN rentalproduct rp ON rp.rental_id = r.id " +
+            "LEFT JOIN product p ON p.id = rp.product_id " +
+            "WHERE r.return_status = " + Rental.WAITING + " AND r.return_date < CAST(? AS DATE) " +
+            "GROUP BY r.id, r.date, r.return_date " +
+            "ORDER BY r.return_date, r.id";
+
+    /**
+     * Retrieve the rentals whose items were due before a given day and are not
+     * returned yet, with the penalty owed for each one as of the start of that day.
+     * Penalties are added up by the database, so the cost of the query depends
+     * on the number of overdue rentals, not on the number of rentals.
+     *
+     * @param asOf The day of reference
+     * @return The overdue rentals, the longest overdue first
+     * @throws PersistenceException
+     */
+    public static List<OverdueRental> getOverdueRentals(LocalDate asOf) throws PersistenceException {
 
-            if (rs.getString("status").equals(Rental.CLOSED))
-                rental.close();
+        Date hardLimit = Date.valueOf(asOf.minusDays(7));
+        List<OverdueRental> overdue = new ArrayList<OverdueRental>();
 
-            if (rs.getByte("return_status") == Rental.RETURNED) {
-                rental.returnItems();
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(GET_OVERDUE_RENTALS_SQL)) {
+            statement.setDate(1, hardLimit);
+            statement.setDate(2, Date.valueOf(asOf));
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    Date returnDate = rs.getDate("return_date");
+                    overdue.add(new OverdueRental(rs.getInt("id"), rs.getDate("date"), returnDate,
+                            rs.getInt("items"), returnDate.before(hardLimit), rs.getDouble("penalty")));
+                }
             }
         } catch (SQLException e) {
-            throw new RecordNotFoundException("Rental does not exist	", e);
+            throw new PersistenceException("Unable to fetch the rentals overdue on " + asOf, e);
         }
-        return rental;
+        return overdue;
+    }
+
+    /**
+     * Sets the in-memory status of a rental from its database columns
+     *
+     * @param rental       The rental loaded from the database
+     * @param status       The value of the status column
+     * @param returnStatus The value of the return_status column
+     */
+    private static void setStatus(Rental rental, String status, byte returnStatus) {
+        if (status.equals(Rental.CLOSED))
+            rental.close();
+
+        if (returnStatus == Rental.RETURNED)
+            rental.returnItems();
     }
 }
@@ -1,13 +1,17 @@
 package dataaccess;
 
 import business.ProductSpec;
+import business.Rental;
 import business.RentalProduct;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Includes operations regarding RentalProduct persistence
@@ -21,8 +25,34 @@ public class RentalProductMapper {
     private static final String INSERT_PRODUCT_RENTAL_SQL =
             "INSERT INTO rentalproduct (id, rental_id, product_id, qty) VALUES (DEFAULT, ?, ?, ?)";
 
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statement: lock a rental, so that no products are added to it by other transactions
+    private static final String LOCK_RENTAL_SQL =
+            "UPDATE rental SET status = status WHERE id = ?";
+
+    /**
+     * Locks the rental's row until the transaction of the calling thread ends,
+     * so that the products added to the rental meanwhile are only the ones
+     * this thread adds. Other inserts of products into the rental wait for the
+     * lock on their foreign key check.
+     *
+     * @param rental_id The rental id
+     * @throws PersistenceException If the rental does not exist
+     */
+    private static void lockRental(int rental_id) throws PersistenceException {
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(LOCK_RENTAL_SQL)) {
+            statement.setInt(1, rental_id);
+            if (statement.executeUpdate() == 0)
+                throw new RecordNotFoundException("Rental " + rental_id + " does not exist");
+        } catch (SQLException e) {
+            throw new PersistenceException ("Internal error locking rental " + rental_id, e);
+        }
+    }
+
     /**
-     * Inserts the record in the rental products table
+     * Inserts the record in the rental products table. Its foreign key check
+     * waits for the products being added to the rental by other transactions
+     * with insertAll.
      *
      * @requires qty >= 0
      * @param rental_id current sale's id
@@ -40,6 +70,7 @@ public class RentalProductMapper {
             // Gets rental product Id generated automatically by the database engine
             try (ResultSet rs = statement.getGeneratedKeys()) {
                 rs.next();
+                RentalMapper.evictOnRollback(rental_id);
                 return rs.getInt(1);
             }
         } catch (SQLException e) {
@@ -47,6 +78,57 @@ public class RentalProductMapper {
         }
     }
 
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statement: select the ids of the latest products added to a rental
+    private static final String GET_LATEST_RENTAL_PRODUCT_IDS_SQL =
+            "SELECT id FROM rentalproduct WHERE rental_id = ? ORDER BY id DESC FETCH FIRST ? ROWS ONLY";
+
+    /**
+     * Inserts several records in the rental products table, sending all the
+     * inserts to the database in a single batch. The rental is locked until the
+     * transaction ends, so that no other products are added to it meanwhile.
+     *
+     * @requires qtys[i] >= 0
+     * @param rental_id current rental's id
+     * @param prod_ids the ids of the products
+     * @param qtys the quantity of each product
+     * @return the ids of the new rental products, in the same order as the products
+     * @throws PersistenceException If the calling thread runs no transaction, or the
+     *         rental does not exist
+     */
+    public static int[] insertAll (int rental_id, int[] prod_ids, int[] qtys) throws PersistenceException {
+        if (!DataSource.INSTANCE.isInTransaction())
+            throw new PersistenceException("Products are added to rental " + rental_id + " in batch only within a transaction");
+        lockRental(rental_id);
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(INSERT_PRODUCT_RENTAL_SQL)) {
+            for (int i = 0; i < prod_ids.length; i++) {
+                statement.setInt(1, rental_id);    // set statement arguments
+                statement.setInt(2, prod_ids[i]);
+                statement.setInt(3, qtys[i]);
+                statement.addBatch();
+            }
+            statement.executeBatch();          // execute SQL
+        } catch (SQLException e) {
+            throw new PersistenceException ("Internal error inserting products into rental " + rental_id, e);
+        }
+        RentalMapper.evictOnRollback(rental_id);
+
+        // a batch does not report the generated ids, but they are increasing, and the
+        // rental is locked, so its latest products are the ones just inserted
+        int[] ids = new int[prod_ids.length];
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(GET_LATEST_RENTAL_PRODUCT_IDS_SQL)) {
+            statement.setInt(1, rental_id);
+            statement.setInt(2, ids.length);
+            try (ResultSet rs = statement.executeQuery()) {
+                for (int i = ids.length - 1; i >= 0 && rs.next(); i--)
+                    ids[i] = rs.getInt("id");
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException ("Internal error getting the products of rental " + rental_id, e);
+        }
+        return ids;
+    }
+
     /////////////////////////////////////////////////////////////////////////
     // SQL statement: deletes rentalProducts of sale
     private static final String DELETE_RENTALPRODUCT_SQL =
@@ -114,4 +196,102 @@ public class RentalProductMapper {
         return result;
     }
 
+    // the most rentals whose products are selected by their ids; more are selected by their range of ids
+    private static final int MAX_RENTAL_IDS = 100;
+
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statement: select the products, and their details, of some rentals (the ids are appended)
+    private static final String GET_RENTAL_PRODUCTS_OF_SQL =
+            "SELECT rp.id AS line_id, rp.rental_id, rp.qty AS line_qty, " +
+                    "p.id AS product_id, p.itemID, p.description, p.price, p.qty AS stock " +
+            "FROM rentalproduct rp JOIN product p ON p.id = rp.product_id " +
+            "WHERE rp.rental_id IN ";
+
+    /**
+     * Adds to each given rental the rental products it has in the database,
+     * with their products, reading them with a single query. A few rentals
+     * are selected by their ids, many by the range of their ids.
+     *
+     * @param rentals The rentals to fill, indexed by id
+     * @throws PersistenceException When there is an error obtaining the
+     *         information from the database.
+     */
+    static void addRentalProducts(Map<Integer, Rental> rentals) throws PersistenceException {
+        if (rentals.size() > MAX_RENTAL_IDS) {
+            addRentalProductsInRange(rentals, Collections.min(rentals.keySet()), Collections.max(rentals.keySet()));
+            return;
+        }
+        StringBuilder sql = new StringBuilder(GET_RENTAL_PRODUCTS_OF_SQL).append('(');
+        for (int i = 0; i < rentals.size(); i++)
+            sql.append(i == 0 ? "?" : ", ?");
+        sql.append(") ORDER BY rp.rental_id, rp.id");
+
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(sql.toString())) {
+            int parameter = 1;
+            for (int rental_id : rentals.keySet())
+                statement.setInt(parameter++, rental_id);
+            try (ResultSet rs = statement.executeQuery()) {
+                addJoinedRentalProducts(rentals, rs);
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException("Internal error getting the products of rentals " + rentals.keySet(), e);
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statement: select the products, and their details, of the rentals in a range of ids
+    private static final String GET_RENTAL_PRODUCTS_IN_RANGE_SQL =
+            "SELECT rp.id AS line_id, rp.rental_id, rp.qty AS line_qty, " +
+                    "p.id AS product_id, p.itemID, p.description, p.price, p.qty AS stock " +
+            "FROM rentalproduct rp JOIN product p ON p.id = rp.product_id " +
+            "WHERE rp.rental_id BETWEEN ? AND ? ORDER BY rp.rental_id, rp.id";
+
+    /**
+     * Adds to each given rental the rental products it has in the database,
+     * reading the rental products of a range of rentals with a single query.
+     *
+     * @param rentals The rentals to fill, indexed by id. Rental products of
+     *                rentals not in this map are skipped.
+     * @param firstId The smallest rental id in the range
+     * @param lastId  The largest rental id in the range
+     * @throws PersistenceException When there is an error obtaining the
+     *         information from the database.
+     */
+    static void addRentalProductsInRange(Map<Integer, Rental> rentals, int firstId, int lastId)
+            throws PersistenceException {
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(GET_RENTAL_PRODUCTS_IN_RANGE_SQL)) {
+            statement.setInt(1, firstId);
+            statement.setInt(2, lastId);
+            try (ResultSet rs = statement.executeQuery()) {
+                addJoinedRentalProducts(rentals, rs);
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException("Internal error getting the products of rentals " + firstId + " to " + lastId, e);
+        }
+    }
+
+    /**
+     * Adds the rental products of a query joining them with their products to
+     * their rentals, with one product object per product
+     *
+     * @param rentals The rentals to fill, indexed by id. Rental products of
+     *                rentals not in this map are skipped.
+     * @param rs      The rows of the rental products, with their products
+     * @throws SQLException When there is an error reading from the database.
+     */
+    private static void addJoinedRentalProducts(Map<Integer, Rental> rentals, ResultSet rs) throws SQLException {
+        Map<Integer, ProductSpec> products = new HashMap<Integer, ProductSpec>();
+        while (rs.next()) {
+            Rental rental = rentals.get(rs.getInt("rental_id"));
+            if (rental == null)
+                continue;
+            ProductSpec product = products.get(rs.getInt("product_id"));
+            if (product == null) {
+                product = ProductMapper.loadJoinedProduct(rs);
+                products.put(product.getId(), product);
+            }
+            rental.addProductToRental(rs.getInt("line_id"), product, rs.getInt("line_qty"));
+        }
+    }
+
 }
@@ -0,0 +1,100 @@
+package dataaccess;
+
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.List;
+
+import business.OverdueRental;
+import business.Rental;
+
+/**
+ * The rentals kept by a storage
+ *
+ * @author ADS08
+ */
+public interface RentalRepository {
+
+    /**
+     * Adds a new open rental, with no products and a total of zero
+     *
+     * @param date       The date of the rental
+     * @param returnDate The date its items must be returned
+     * @return The id of the rental
+     * @throws PersistenceException In case the rental cannot be added
+     */
+    int insert(Date date, Date returnDate) throws PersistenceException;
+
+    /**
+     * Updates the total and status of a rental
+     *
+     * @param rental_id The id of the rental
+     * @param total     The new total
+     * @param status    The new status, Rental.OPEN or Rental.CLOSED
+     * @throws PersistenceException In case the rental cannot be updated
+     */
+    void update(int rental_id, double total, String status) throws PersistenceException;
+
+    /**
+     * Updates the return status of a rental
+     *
+     * @param rental_id     The id of the rental
+     * @param rental_status The new return status, Rental.WAITING or Rental.RETURNED
+     * @throws PersistenceException In case the rental cannot be updated
+     */
+    void updateRentalStatus(int rental_id, byte rental_status) throws PersistenceException;
+
+    /**
+     * Sets a rental as returned, unless it already is. Of several units of work
+     * returning the same rental, only one succeeds.
+     *
+     * @param rental_id The id of the rental
+     * @return Whether the rental was set as returned; false if it was already
+     *         returned or does not exist
+     * @throws PersistenceException In case the rental cannot be updated
+     */
+    boolean markReturned(int rental_id) throws PersistenceException;
+
+    /**
+     * Removes a rental and its rental products. Product stocks are not changed.
+     *
+     * @param rental_id The id of the rental
+     * @throws PersistenceException In case the rental cannot be removed
+     */
+    void delete(int rental_id) throws PersistenceException;
+
+    /**
+     * Gets a rental, with its rental products
+     *
+     * @param rental_id The id of the rental
+     * @return The rental
+     * @throws RecordNotFoundException If the rental does not exist
+     * @throws PersistenceException In case the rental cannot be read
+     */
+    Rental getRentalById(int rental_id) throws PersistenceException;
+
+    /**
+     * @return Every rental, with its rental products, ordered by id
+     * @throws PersistenceException In case the rentals cannot be read
+     */
+    List<Rental> getAllRentals() throws PersistenceException;
+
+    /**
+     * Gets the rentals with the smallest ids greater than a given one
+     *
+     * @param afterId  The id after which the page starts (0 for the first page)
+     * @param pageSize The maximum number of rentals in the page
+     * @return The rentals of the page, ordered by id
+     * @throws PersistenceException In case the rentals cannot be read
+     */
+    List<Rental> getRentalPage(int afterId, int pageSize) throws PersistenceException;
+
+    /**
+     * Gets the unreturned rentals due before a given day, with the penalty owed
+     * for each one at the start of that day
+     *
+     * @param asOf The day of reference
+     * @return The overdue rentals, the longest overdue first
+     * @throws PersistenceException In case the rentals cannot be read
+     */
+    List<OverdueRental> getOverdueRentals(LocalDate asOf) throws PersistenceException;
+}
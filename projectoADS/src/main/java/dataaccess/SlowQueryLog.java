@@ -0,0 +1,232 @@
+package dataaccess;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Writes the SQL statements that took longer than a threshold, with their
+ * bind parameters, how long they took, the rows they touched and the mapper
+ * method that ran them. A threshold of zero writes every statement, which
+ * makes it a trace of the SQL run by the application, e.g. to spot a rental
+ * whose lines are read one query at a time.
+ *
+ * Statements are handed to a background thread through a bounded queue, so
+ * a slow destination never slows down the statements; when the queue is
+ * full the statements are dropped and counted instead. The background thread
+ * also formats them, and finds the mapper method in the stack captured by the
+ * thread that ran the statement.
+ *
+ * Installed with DataSource.setSlowQueryLog.
+ *
+ * @author ADS08
+ */
+public class SlowQueryLog implements AutoCloseable {
+
+    // the default number of statements waiting to be written
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // the longest bind parameter written, longer ones are cut
+    private static final int MAX_PARAMETER_LENGTH = 64;
+
+    private static final DateTimeFormatter TIMESTAMPS =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final Pattern SPACE = Pattern.compile("\\s+");
+
+    private final long thresholdNanos;
+    private final Writer out;
+    private final BlockingQueue<Statement> queue;
+    private final Thread appender;
+    private final LongAdder logged = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Creates a log of the statements slower than a threshold, holding up to
+     * DEFAULT_CAPACITY statements waiting to be written
+     *
+     * @param threshold How long a statement must take to be written
+     * @param unit      The unit of the threshold
+     * @param out       Where the statements are written, one per line
+     */
+    public SlowQueryLog(long threshold, TimeUnit unit, Writer out) {
+        this(threshold, unit, out, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a log of the statements slower than a threshold
+     *
+     * @param threshold How long a statement must take to be written
+     * @param unit      The unit of the threshold
+     * @param out       Where the statements are written, one per line
+     * @param capacity  How many statements can wait to be written
+     */
+    public SlowQueryLog(long threshold, TimeUnit unit, Writer out, int capacity) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("Invalid threshold " + threshold);
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.out = out;
+        this.queue = new ArrayBlockingQueue<Statement>(capacity);
+        this.appender = new Thread(this::append, "slow-query-log");
+        appender.setDaemon(true);
+        appender.start();
+    }
+
+    /**
+     * @return How many statements were handed to the background thread
+     */
+    public long getLogged() {
+        return logged.sum();
+    }
+
+    /**
+     * @return How many slow statements were dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @param nanos How long a statement took, in nanoseconds
+     * @return Whether it is written
+     */
+    boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos && !closed;
+    }
+
+    /**
+     * Writes a statement, if it is slow
+     *
+     * @param sql        The SQL text
+     * @param parameters The bind parameters, in the order of their positions (null if none)
+     * @param nanos      How long it took, in nanoseconds
+     * @param rows       The rows it changed or read, or -1 if unknown
+     */
+    void record(String sql, List<Object> parameters, long nanos, long rows) {
+        if (!isSlow(nanos))
+            return;
+        // the stack is only captured here, its frames are read by the background thread
+        Statement statement = new Statement(System.currentTimeMillis(), sql, parameters, nanos, rows, new Throwable());
+        if (queue.offer(statement))
+            logged.increment();
+        else
+            dropped.increment();
+    }
+
+    /**
+     * A statement written, as it was run
+     */
+    private static final class Statement {
+        final long time;
+        final String sql;
+        final List<Object> parameters;
+        final long nanos;
+        final long rows;
+        final Throwable stack;
+
+        Statement(long time, String sql, List<Object> parameters, long nanos, long rows, Throwable stack) {
+            this.time = time;
+            this.sql = sql;
+            this.parameters = parameters;
+            this.nanos = nanos;
+            this.rows = rows;
+            this.stack = stack;
+        }
+    }
+
+    /**
+     * @return The line written for a statement
+     */
+    private static String format(Statement statement) {
+        StringBuilder line = new StringBuilder(statement.sql.length() + 128);
+        line.append(TIMESTAMPS.format(Instant.ofEpochMilli(statement.time)));
+        line.append(String.format(Locale.ROOT, " %.3f ms", statement.nanos / 1e6));
+        line.append(" rows=").append(statement.rows < 0 ? "?" : String.valueOf(statement.rows));
+        line.append(' ').append(caller(statement.stack));
+        line.append(' ').append(SPACE.matcher(statement.sql).replaceAll(" ").trim());
+        List<Object> parameters = statement.parameters;
+        if (parameters != null && !parameters.isEmpty()) {
+            line.append(" [");
+            for (int i = 0; i < parameters.size(); i++) {
+                if (i > 0)
+                    line.append(", ");
+                line.append(format(parameters.get(i)));
+            }
+            line.append(']');
+        }
+        return line.toString();
+    }
+
+    /**
+     * @param stack The stack of the thread that ran the statement, when it ran it
+     * @return The class and method, outside the data source and the JDK, that
+     *         ran the statement
+     */
+    private static String caller(Throwable stack) {
+        for (StackTraceElement frame : stack.getStackTrace()) {
+            String className = frame.getClassName();
+            if (className.equals(SlowQueryLog.class.getName())
+                    || className.startsWith(DataSource.class.getName())
+                    || className.startsWith("java.") || className.startsWith("javax.")
+                    || className.startsWith("jdk.") || className.startsWith("sun.")
+                    || className.startsWith("com.sun.") || className.contains("$Proxy"))
+                continue;
+            return className.substring(className.lastIndexOf('.') + 1) + "." + frame.getMethodName();
+        }
+        return "?";
+    }
+
+    private static String format(Object parameter) {
+        if (parameter == null)
+            return "NULL";
+        String text = parameter.toString();
+        if (text.length() > MAX_PARAMETER_LENGTH)
+            text = text.substring(0, MAX_PARAMETER_LENGTH) + "...";
+        return parameter instanceof Number || parameter instanceof Boolean ? text : "'" + text + "'";
+    }
+
+    /**
+     * Writes the statements as they are queued, flushing whenever the queue empties
+     */
+    private void append() {
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Statement statement = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (statement == null)
+                    continue;
+                out.write(format(statement));
+                out.write(System.lineSeparator());
+                if (queue.isEmpty())
+                    out.flush();
+            } catch (InterruptedException e) {
+                closed = true;
+            } catch (IOException e) {
+                dropped.increment();    // the destination failed, the statement is lost
+            }
+        }
+    }
+
+    /**
+     * Writes the statements still queued and stops the background thread.
+     * The writer is flushed, but not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            appender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,138 @@
+package dataaccess;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least recently used cache of the prepared statements of one connection,
+ * keyed by the SQL text and whether generated keys are requested.
+ *
+ * Statements are checked out while in use and checked back in when the mapper
+ * closes them, so the same SQL may be prepared twice if a caller nests two
+ * uses of it. A cache is only used by the thread its connection is bound to.
+ *
+ * @author ADS08
+ */
+class StatementCache {
+
+	private final Connection connection;
+	private final int capacity;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	// the statements ready to be reused, least recently used first
+	private final LinkedHashMap<Key, PreparedStatement> statements;
+
+	/**
+	 * Creates an empty cache for a connection
+	 *
+	 * @param connection The connection the statements are prepared on
+	 * @param capacity The maximum number of statements kept for reuse
+	 * @param hits The counter of statements served from the cache
+	 * @param misses The counter of statements that had to be prepared
+	 */
+	StatementCache(Connection connection, int capacity, AtomicLong hits, AtomicLong misses) {
+		this.connection = connection;
+		this.capacity = capacity;
+		this.hits = hits;
+		this.misses = misses;
+		this.statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * Takes a statement out of the cache, preparing it if none is available
+	 *
+	 * @param sql The SQL text to prepare the command
+	 * @param genKeys Whether the statement returns the generated database keys
+	 * @return A statement with no parameters set
+	 * @throws SQLException In case the statement cannot be prepared
+	 */
+	PreparedStatement checkout(String sql, boolean genKeys) throws SQLException {
+		PreparedStatement statement = statements.remove(new Key(sql, genKeys));
+		if (statement != null) {
+			hits.incrementAndGet();
+			return statement;
+		}
+		misses.incrementAndGet();
+		return genKeys ? connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+				       : connection.prepareStatement(sql);
+	}
+
+	/**
+	 * Gives a statement back to the cache once its user closed it. The least
+	 * recently used statement is closed when the cache is full.
+	 *
+	 * @param sql The SQL text the statement was prepared with
+	 * @param genKeys Whether the statement returns the generated database keys
+	 * @param statement The statement obtained from checkout
+	 */
+	void checkin(String sql, boolean genKeys, PreparedStatement statement) {
+		if (capacity == 0) {
+			close(statement);
+			return;
+		}
+		try {
+			statement.clearParameters();
+		} catch (SQLException e) {
+			close(statement);
+			return;
+		}
+		PreparedStatement previous = statements.put(new Key(sql, genKeys), statement);
+		if (previous != null)
+			close(previous);
+		if (statements.size() > capacity) {
+			Iterator<PreparedStatement> eldest = statements.values().iterator();
+			close(eldest.next());
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Closes every cached statement
+	 */
+	void clear() {
+		for (PreparedStatement statement : statements.values())
+			close(statement);
+		statements.clear();
+	}
+
+	private static void close(Statement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			// nothing that we can do about it...
+		}
+	}
+
+	/**
+	 * Identifies a cached statement
+	 */
+	private static final class Key {
+		private final String sql;
+		private final boolean genKeys;
+
+		Key(String sql, boolean genKeys) {
+			this.sql = sql;
+			this.genKeys = genKeys;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+			Key key = (Key) other;
+			return genKeys == key.genKeys && sql.equals(key.sql);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * sql.hashCode() + (genKeys ? 1 : 0);
+		}
+	}
+
+}
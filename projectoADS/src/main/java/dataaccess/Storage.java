@@ -0,0 +1,37 @@
+package dataaccess;
+
+/**
+ * Where the products and rentals are kept: the repositories the catalogs
+ * work with, and the units of work that group their operations.
+ *
+ * DatabaseStorage keeps them in the database through the mappers;
+ * MemoryStorage keeps them in memory only.
+ *
+ * @author ADS08
+ */
+public interface Storage {
+
+    /**
+     * @return The products
+     */
+    ProductRepository products();
+
+    /**
+     * @return The rentals
+     */
+    RentalRepository rentals();
+
+    /**
+     * @return The products of the rentals
+     */
+    RentalLineRepository rentalLines();
+
+    /**
+     * Starts a unit of work on the calling thread. A unit of work started while
+     * the thread already runs one joins it.
+     *
+     * @return The new unit of work
+     * @throws PersistenceException In case the unit of work cannot be started
+     */
+    UnitOfWork beginUnitOfWork() throws PersistenceException;
+}
@@ -0,0 +1,57 @@
+package dataaccess;
+
+/**
+ * A unit of work groups the operations of a use case on a storage, so that
+ * they either all take effect or none does.
+ *
+ * Usage:
+ * <pre>
+ * try (UnitOfWork work = storage.beginUnitOfWork()) {
+ *     ... calls to the repositories ...
+ *     work.commit();
+ * }
+ * </pre>
+ * Closing a unit of work that was not committed rolls it back. A unit of
+ * work started while the thread already runs one joins it, and leaves the
+ * commit or rollback to the outer unit.
+ *
+ * Work kept outside the storage, e.g. stock reserved in memory, is made to
+ * follow the outcome with afterCommit and afterRollback.
+ *
+ * @author ADS08
+ */
+public interface UnitOfWork extends AutoCloseable {
+
+    /**
+     * Commits the unit of work
+     *
+     * @throws PersistenceException In case the commit fails
+     */
+    void commit() throws PersistenceException;
+
+    /**
+     * Runs an action once the changes of the unit of work are committed: when
+     * it joined another unit, once the outer unit is committed. The action does
+     * not run if they are rolled back.
+     *
+     * @param action The action
+     */
+    void afterCommit(Runnable action);
+
+    /**
+     * Runs an action once the changes of the unit of work are rolled back, or
+     * fail to commit: when it joined another unit, once the outer unit is.
+     * The actions run in the reverse order of their registration.
+     *
+     * @param action The action
+     */
+    void afterRollback(Runnable action);
+
+    /**
+     * Rolls back the unit of work if it was not committed
+     *
+     * @throws PersistenceException In case the rollback fails
+     */
+    @Override
+    void close() throws PersistenceException;
+}
@@ -0,0 +1,826 @@
+package dataaccess;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import business.OverdueRental;
+import business.ProductSpec;
+import business.Rental;
+import business.RentalProduct;
+
+/**
+ * A storage that keeps the products and rentals in the database, but does not
+ * wait for the database when they change.
+ *
+ * The changes made in a unit of work are appended, on commit, to a journal
+ * kept in a memory-mapped file, and a background thread applies them to the
+ * database in batches. Committing costs a memory copy instead of a database
+ * transaction, and the changes are not lost if the application stops before
+ * they are applied: opening the storage applies whatever the journal holds
+ * first. Forcing each append to the storage device, at the cost of a sync
+ * per commit, makes them survive a crash of the machine too.
+ *
+ * Until they are applied, the changes are kept in memory: the stock of every
+ * product changed so far, and the rentals with changes not applied yet. Rentals
+ * are read from there when they have pending changes, and from the database
+ * otherwise. Listing rentals waits for the pending changes to be applied.
+ *
+ * The stock of the products and the ids of new rentals and rental products
+ * are decided in memory, so while the storage is open nothing else may change
+ * the database. Changes of a unit of work that is not committed are undone in
+ * memory, but may have been seen by other threads in the meantime.
+ *
+ * @author ADS08
+ */
+public class WriteBehindStorage implements Storage, AutoCloseable {
+
+    // the default size of the journal file
+    public static final int DEFAULT_JOURNAL_CAPACITY = 64 * 1024 * 1024;
+
+    // the record number of the changes of a unit of work not committed yet
+    private static final long UNPUBLISHED = Long.MAX_VALUE;
+
+    private final DatabaseStorage database = DatabaseStorage.INSTANCE;
+    private final RentalJournal journal;
+    private final JournalApplier applier;
+
+    // the stock of each product changed so far, which the database catches up with
+    private final ConcurrentHashMap<Integer, AtomicInteger> stocks =
+            new ConcurrentHashMap<Integer, AtomicInteger>();
+
+    // the rentals with changes not applied to the database yet
+    private final ConcurrentHashMap<Integer, PendingRental> pending =
+            new ConcurrentHashMap<Integer, PendingRental>();
+
+    private final AtomicInteger rentalIds = new AtomicInteger();
+    private final AtomicInteger lineIds = new AtomicInteger();
+
+    // serializes the appends, and counts them
+    private final Object appendLock = new Object();
+    private long appendedRecords;
+
+    private final ThreadLocal<WriteBehindUnit> currentUnit = new ThreadLocal<WriteBehindUnit>();
+    private volatile boolean closed;
+
+    private final ProductRepository products = new Products();
+    private final RentalRepository rentals = new Rentals();
+    private final RentalLineRepository rentalLines = new RentalLines();
+
+    private WriteBehindStorage(RentalJournal journal) {
+        this.journal = journal;
+        this.applier = new JournalApplier(journal, this::forgetApplied);
+    }
+
+    /**
+     * Opens the storage with a journal of the default capacity, whose appends
+     * are not forced to the storage device
+     *
+     * @param journalFile The journal file, created if it does not exist
+     * @return The storage
+     * @throws PersistenceException If the journal cannot be opened or applied
+     */
+    public static WriteBehindStorage open(Path journalFile) throws PersistenceException {
+        return open(journalFile, DEFAULT_JOURNAL_CAPACITY, false);
+    }
+
+    /**
+     * Opens the storage, applying to the database the changes left in the
+     * journal by the last run. The DataSource must be connected.
+     *
+     * @param journalFile The journal file, created if it does not exist
+     * @param capacity    The size of the journal file, in bytes
+     * @param force       Whether each commit is forced to the storage device
+     * @return The storage
+     * @throws PersistenceException If the journal cannot be opened or applied
+     */
+    public static WriteBehindStorage open(Path journalFile, int capacity, boolean force) throws PersistenceException {
+        RentalJournal journal;
+        try {
+            journal = new RentalJournal(journalFile, capacity, force);
+        } catch (IOException e) {
+            throw new PersistenceException("Unable to open the rental journal " + journalFile, e);
+        }
+        try {
+            WriteBehindStorage storage = new WriteBehindStorage(journal);
+            storage.applier.recover();
+            storage.rentalIds.set(lastId(LAST_RENTAL_ID_SQL));
+            storage.lineIds.set(lastId(LAST_RENTAL_PRODUCT_ID_SQL));
+            // the recovered records may hold ids the database did not generate, if the
+            // last run did not close the storage
+            storage.restartIds();
+            storage.applier.start();
+            return storage;
+        } catch (PersistenceException e) {
+            try {
+                journal.close();
+            } catch (IOException closing) {
+                e.addSuppressed(closing);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public ProductRepository products() {
+        return products;
+    }
+
+    @Override
+    public RentalRepository rentals() {
+        return rentals;
+    }
+
+    @Override
+    public RentalLineRepository rentalLines() {
+        return rentalLines;
+    }
+
+    @Override
+    public UnitOfWork beginUnitOfWork() throws PersistenceException {
+        return begin();
+    }
+
+    /**
+     * Waits until every change committed so far is applied to the database
+     *
+     * @throws PersistenceException If the changes can no longer be applied
+     */
+    public void drain() throws PersistenceException {
+        long appended;
+        synchronized (appendLock) {
+            appended = appendedRecords;
+        }
+        applier.awaitApplied(appended);
+    }
+
+    /////////////////////////////////////////////////////////////////////////
+    // SQL statements: the largest ids in use, and let the database continue after
+    // the ids given by the storage
+    private static final String LAST_RENTAL_ID_SQL = "SELECT MAX(id) FROM rental";
+    private static final String LAST_RENTAL_PRODUCT_ID_SQL = "SELECT MAX(id) FROM rentalproduct";
+    private static final String RESTART_RENTAL_ID_SQL = "ALTER TABLE rental ALTER COLUMN id RESTART WITH ";
+    private static final String RESTART_RENTAL_PRODUCT_ID_SQL = "ALTER TABLE rentalproduct ALTER COLUMN id RESTART WITH ";
+
+    /**
+     * Applies every change committed so far to the database and closes the journal.
+     * The database then generates ids after the ones given by the storage.
+     *
+     * @throws PersistenceException If the changes cannot be applied
+     */
+    @Override
+    public void close() throws PersistenceException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            drain();
+            applier.stop();
+            restartIds();
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted closing the rental journal", e);
+        } catch (IOException e) {
+            throw new PersistenceException("Unable to close the rental journal", e);
+        }
+    }
+
+    private static int lastId(String sql) throws PersistenceException {
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(sql);
+             ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            throw new PersistenceException("Internal error reading the last id in use", e);
+        }
+    }
+
+    /**
+     * Lets the database generate ids after the ones given by the storage
+     */
+    private void restartIds() throws PersistenceException {
+        restartIds(RESTART_RENTAL_ID_SQL, rentalIds.get() + 1);
+        restartIds(RESTART_RENTAL_PRODUCT_ID_SQL, lineIds.get() + 1);
+    }
+
+    private static void restartIds(String sql, int next) throws PersistenceException {
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(sql + next)) {
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new PersistenceException("Internal error restarting the ids at " + next, e);
+        }
+    }
+
+
+    // 1. Units of work
+
+    private WriteBehindUnit begin() throws PersistenceException {
+        if (closed)
+            throw new PersistenceException("The write-behind storage is closed");
+        WriteBehindUnit current = currentUnit.get();
+        if (current != null)
+            return new WriteBehindUnit(current);
+        WriteBehindUnit unit = new WriteBehindUnit(null);
+        currentUnit.set(unit);
+        return unit;
+    }
+
+    /**
+     * Appends the changes of a committed unit of work to the journal
+     */
+    private void publish(WriteBehindUnit unit) throws PersistenceException {
+        if (unit.events.isEmpty())
+            return;
+        long record;
+        try {
+            synchronized (appendLock) {
+                journal.append(unit.events.toByteArray());
+                record = ++appendedRecords;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted waiting for room in the rental journal", e);
+        }
+        unit.record = record;    // the pending changes of the unit are published with it
+        applier.wakeUp();
+        for (int rental_id : unit.rentals)
+            forgetIfApplied(rental_id);
+    }
+
+    /**
+     * Forgets the pending changes of the rentals that were applied to the database
+     */
+    private void forgetApplied() {
+        long applied = applier.getAppliedRecords();
+        pending.values().removeIf(rental -> rental.record() <= applied);
+    }
+
+    private void forgetIfApplied(int rental_id) {
+        long applied = applier.getAppliedRecords();
+        pending.computeIfPresent(rental_id, (id, rental) -> rental.record() <= applied ? null : rental);
+    }
+
+    /**
+     * The changes made by a thread, published on commit and undone in memory
+     * otherwise. A unit of work started within another joins it.
+     */
+    private final class WriteBehindUnit implements UnitOfWork {
+        private final boolean joined;
+        // the outermost unit, whose commit publishes the changes
+        private final WriteBehindUnit owner;
+        private final JournalEvents.Writer events;
+        private final List<Runnable> undo;
+        private final Set<Integer> rentals;
+        private final CompletionActions actions;
+        private boolean done;
+
+        // the journal record of the changes, once the unit is committed
+        private volatile long record = UNPUBLISHED;
+
+        WriteBehindUnit(WriteBehindUnit outer) {
+            this.joined = outer != null;
+            this.owner = joined ? outer.owner : this;
+            this.events = joined ? outer.events : new JournalEvents.Writer();
+            this.undo = joined ? outer.undo : new ArrayList<Runnable>();
+            this.rentals = joined ? outer.rentals : new HashSet<Integer>();
+            this.actions = joined ? outer.actions : new CompletionActions();
+        }
+
+        /**
+         * Keeps the state of a new rental, removing it on rollback
+         */
+        void insert(PendingRental rental) {
+            PendingRental inserted = rental.ownedBy(owner);
+            pending.put(rental.id, inserted);
+            rentals.add(rental.id);
+            undo.add(() -> pending.remove(rental.id, inserted));
+        }
+
+        /**
+         * Changes the current state of a rental, from its pending changes or from the
+         * database, in a single step, so that concurrent changes are not lost; the
+         * change is undone on rollback, unless another unit changed the rental since
+         *
+         * @param change The new state from the current one, or the same state to
+         *               leave the rental unchanged
+         * @return Whether the rental exists, and was changed
+         */
+        boolean change(int rental_id, UnaryOperator<PendingRental> change) throws PersistenceException {
+            PendingRental[] previous = new PendingRental[1];
+            PendingRental[] changed = new PendingRental[1];
+            boolean[] forgotten = new boolean[1];
+            do {
+                // a rental without pending changes is read before, not while the entry is locked
+                boolean read = !pending.containsKey(rental_id);
+                PendingRental stored = read ? stored(rental_id) : null;
+                forgotten[0] = false;
+                pending.compute(rental_id, (id, rental) -> {
+                    if (rental == null && !read) {    // applied and forgotten meanwhile
+                        forgotten[0] = true;
+                        return null;
+                    }
+                    PendingRental current = rental != null ? rental : stored;
+                    PendingRental next = current == null || current.deleted ? current : change.apply(current);
+                    if (next == current)
+                        return rental;
+                    previous[0] = rental;
+                    changed[0] = next.ownedBy(owner);
+                    return changed[0];
+                });
+            } while (forgotten[0]);
+            if (changed[0] == null)
+                return false;
+            rentals.add(rental_id);
+            undo.add(() -> {
+                if (previous[0] == null)
+                    pending.remove(rental_id, changed[0]);
+                else
+                    pending.replace(rental_id, changed[0], previous[0]);
+            });
+            return true;
+        }
+
+        /**
+         * Adds to the stock of a product, undoing it on rollback
+         */
+        void changeStock(int prod_id, AtomicInteger stock, int delta) {
+            events.stockChanged(prod_id, delta);
+            undo.add(() -> stock.addAndGet(-delta));
+        }
+
+        @Override
+        public void commit() throws PersistenceException {
+            if (done)
+                throw new PersistenceException("Unit of work already finished");
+            done = true;
+            if (joined)
+                return;
+            currentUnit.remove();
+            try {
+                publish(this);
+            } catch (PersistenceException e) {
+                rollback();
+                throw e;
+            }
+            actions.committed();
+        }
+
+        @Override
+        public void afterCommit(Runnable action) {
+            actions.afterCommit(action);
+        }
+
+        @Override
+        public void afterRollback(Runnable action) {
+            actions.afterRollback(action);
+        }
+
+        @Override
+        public void close() {
+            if (done || joined)
+                return;
+            done = true;
+            currentUnit.remove();
+            rollback();
+        }
+
+        private void rollback() {
+            try {
+                for (int i = undo.size() - 1; i >= 0; i--)
+                    undo.get(i).run();
+            } finally {
+                actions.rolledBack();
+            }
+        }
+    }
+
+
+    // 2. Products
+
+    /**
+     * @return The stock of a product, read from the database the first time
+     * @throws RecordNotFoundException If the product does not exist
+     */
+    private AtomicInteger stock(int prod_id) throws PersistenceException {
+        AtomicInteger stock = stocks.get(prod_id);
+        if (stock == null) {
+            AtomicInteger loaded = new AtomicInteger(database.products().getProductById(prod_id).getStock());
+            stock = stocks.putIfAbsent(prod_id, loaded);
+            if (stock == null)
+                stock = loaded;
+        }
+        return stock;
+    }
+
+    /**
+     * Sets the stock of a product read from the database to the one kept in memory
+     */
+    private ProductSpec withCurrentStock(ProductSpec product) {
+        AtomicInteger stock = stocks.get(product.getId());
+        if (stock != null)
+            product.setStock(stock.get());
+        return product;
+    }
+
+    private static boolean take(AtomicInteger stock, int qty) {
+        int current;
+        do {
+            current = stock.get();
+            if (current < qty)
+                return false;
+        } while (!stock.compareAndSet(current, current - qty));
+        return true;
+    }
+
+    /**
+     * The products are read from the database, their stock is kept in memory
+     */
+    private final class Products implements ProductRepository {
+
+        @Override
+        public ProductSpec getProductById(int id) throws PersistenceException {
+            return withCurrentStock(database.products().getProductById(id));
+        }
+
+        @Override
+        public ProductSpec getProductByProdCod(int itemID) throws PersistenceException {
+            return withCurrentStock(database.products().getProductByProdCod(itemID));
+        }
+
+        @Override
+        public Map<Integer, ProductSpec> getProductsByProdCods(Collection<Integer> itemIDs) throws PersistenceException {
+            Map<Integer, ProductSpec> found = database.products().getProductsByProdCods(itemIDs);
+            for (ProductSpec product : found.values())
+                withCurrentStock(product);
+            return found;
+        }
+
+        @Override
+        public void updateStockValue(int prod_id, int qty) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                AtomicInteger stock;
+                try {
+                    stock = stock(prod_id);
+                } catch (RecordNotFoundException e) {
+                    return;     // as updating no row in the database
+                }
+                int previous = stock.getAndSet(qty);
+                unit.events.stockSet(prod_id, qty);
+                unit.undo.add(() -> stock.addAndGet(previous - qty));
+                unit.commit();
+            }
+        }
+
+        @Override
+        public boolean decreaseStock(int prod_id, int qty) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                AtomicInteger stock;
+                try {
+                    stock = stock(prod_id);
+                } catch (RecordNotFoundException e) {
+                    return false;
+                }
+                if (!take(stock, qty))
+                    return false;
+                unit.changeStock(prod_id, stock, -qty);
+                unit.commit();
+                return true;
+            }
+        }
+
+        @Override
+        public void increaseStock(int prod_id, int qty) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                AtomicInteger stock = stock(prod_id);
+                stock.addAndGet(qty);
+                unit.changeStock(prod_id, stock, qty);
+                unit.commit();
+            }
+        }
+
+        @Override
+        public boolean decreaseStocks(int[] prod_ids, int[] qtys) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                for (int i = 0; i < prod_ids.length; i++) {
+                    AtomicInteger stock;
+                    try {
+                        stock = stock(prod_ids[i]);
+                    } catch (RecordNotFoundException e) {
+                        return false;   // the units already taken are given back on close
+                    }
+                    if (!take(stock, qtys[i]))
+                        return false;
+                    unit.changeStock(prod_ids[i], stock, -qtys[i]);
+                }
+                unit.commit();
+                return true;
+            }
+        }
+
+        @Override
+        public void increaseStocks(int[] prod_ids, int[] qtys) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                AtomicInteger[] found = new AtomicInteger[prod_ids.length];
+                for (int i = 0; i < prod_ids.length; i++)
+                    found[i] = stock(prod_ids[i]);
+                for (int i = 0; i < found.length; i++) {
+                    found[i].addAndGet(qtys[i]);
+                    unit.changeStock(prod_ids[i], found[i], qtys[i]);
+                }
+                unit.commit();
+            }
+        }
+    }
+
+
+    // 3. Rentals
+
+    /**
+     * @return The state of a rental stored in the database, or null if it does not exist
+     */
+    private PendingRental stored(int rental_id) throws PersistenceException {
+        try {
+            return PendingRental.of(database.rentals().getRentalById(rental_id));
+        } catch (RecordNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The pending changes of a rental, or null if it has none
+     */
+    private PendingRental pendingRental(int rental_id) {
+        forgetIfApplied(rental_id);
+        return pending.get(rental_id);
+    }
+
+    private Rental toRental(PendingRental pendingRental) throws PersistenceException {
+        Rental rental = new Rental(pendingRental.id, pendingRental.date, pendingRental.returnDate,
+                pendingRental.lineIds.length);
+        for (int i = 0; i < pendingRental.lineIds.length; i++)
+            rental.addProductToRental(pendingRental.lineIds[i],
+                    products.getProductById(pendingRental.productIds[i]), pendingRental.qtys[i]);
+        if (pendingRental.status.equals(Rental.CLOSED))
+            rental.close();
+        if (pendingRental.returnStatus == Rental.RETURNED)
+            rental.returnItems();
+        return rental;
+    }
+
+    /**
+     * The rentals with pending changes are kept in memory, the others read from the database
+     */
+    private final class Rentals implements RentalRepository {
+
+        @Override
+        public int insert(java.util.Date date, java.util.Date returnDate) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                int id = rentalIds.incrementAndGet();
+                PendingRental rental = new PendingRental(id, day(date), day(returnDate),
+                        Rental.OPEN, Rental.WAITING, false, new int[0], new int[0], new int[0], null);
+                unit.insert(rental);
+                unit.events.rentalInserted(id, rental.date.getTime(), rental.returnDate.getTime());
+                unit.commit();
+                return id;
+            }
+        }
+
+        @Override
+        public void update(int rental_id, double total, String status) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                if (unit.change(rental_id, rental -> rental.withStatus(status, rental.returnStatus)))
+                    unit.events.rentalUpdated(rental_id, total, status);
+                unit.commit();
+            }
+        }
+
+        @Override
+        public void updateRentalStatus(int rental_id, byte rental_status) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                if (unit.change(rental_id, rental -> rental.withStatus(rental.status, rental_status)))
+                    unit.events.rentalStatusUpdated(rental_id, rental_status);
+                unit.commit();
+            }
+        }
+
+        @Override
+        public boolean markReturned(int rental_id) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                // each rental is returned once, as the status is checked and changed in a single step
+                if (!unit.change(rental_id, rental -> rental.returnStatus == Rental.RETURNED ? rental
+                        : rental.withStatus(rental.status, Rental.RETURNED)))
+                    return false;
+                unit.events.rentalStatusUpdated(rental_id, Rental.RETURNED);
+                unit.commit();
+                return true;
+            }
+        }
+
+        @Override
+        public void delete(int rental_id) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                if (unit.change(rental_id, PendingRental::asDeleted))
+                    unit.events.rentalDeleted(rental_id);
+                unit.commit();
+            }
+        }
+
+        @Override
+        public Rental getRentalById(int rental_id) throws PersistenceException {
+            PendingRental rental = pendingRental(rental_id);
+            if (rental == null) {
+                Rental stored = database.rentals().getRentalById(rental_id);
+                for (RentalProduct rp : stored.getRentalProducts())
+                    withCurrentStock(rp.getProduct());
+                return stored;
+            }
+            if (rental.deleted)
+                throw new RecordNotFoundException("Rental " + rental_id + " does not exist");
+            return toRental(rental);
+        }
+
+        @Override
+        public List<Rental> getAllRentals() throws PersistenceException {
+            drain();
+            return database.rentals().getAllRentals();
+        }
+
+        @Override
+        public List<Rental> getRentalPage(int afterId, int pageSize) throws PersistenceException {
+            drain();
+            return database.rentals().getRentalPage(afterId, pageSize);
+        }
+
+        @Override
+        public List<OverdueRental> getOverdueRentals(LocalDate asOf) throws PersistenceException {
+            drain();
+            return database.rentals().getOverdueRentals(asOf);
+        }
+    }
+
+    /**
+     * The rental products are kept with the pending changes of their rental
+     */
+    private final class RentalLines implements RentalLineRepository {
+
+        @Override
+        public int insert(int rental_id, int prod_id, int qty) throws PersistenceException {
+            return insertAll(rental_id, new int[] { prod_id }, new int[] { qty })[0];
+        }
+
+        @Override
+        public int[] insertAll(int rental_id, int[] prod_ids, int[] qtys) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                int[] ids = new int[prod_ids.length];
+                for (int i = 0; i < prod_ids.length; i++) {
+                    stock(prod_ids[i]);    // the product must exist
+                    ids[i] = lineIds.incrementAndGet();
+                }
+                if (!unit.change(rental_id, rental -> rental.withLines(ids, prod_ids, qtys)))
+                    throw new RecordNotFoundException("Rental " + rental_id + " does not exist");
+                for (int i = 0; i < ids.length; i++)
+                    unit.events.lineInserted(ids[i], rental_id, prod_ids[i], qtys[i]);
+                unit.commit();
+                return ids;
+            }
+        }
+
+        @Override
+        public void delete(int rental_id) throws PersistenceException {
+            try (WriteBehindUnit unit = begin()) {
+                if (unit.change(rental_id, PendingRental::withoutLines))
+                    unit.events.linesDeleted(rental_id);
+                unit.commit();
+            }
+        }
+
+        @Override
+        public List<RentalProduct> getRentalProducts(int rental_id) throws PersistenceException {
+            PendingRental rental = pendingRental(rental_id);
+            if (rental == null) {
+                List<RentalProduct> stored = database.rentalLines().getRentalProducts(rental_id);
+                for (RentalProduct rp : stored)
+                    withCurrentStock(rp.getProduct());
+                return stored;
+            }
+            List<RentalProduct> result = new ArrayList<RentalProduct>();
+            if (!rental.deleted)
+                for (int i = 0; i < rental.lineIds.length; i++) {
+                    RentalProduct rentalProduct = new RentalProduct(
+                            products.getProductById(rental.productIds[i]), rental.qtys[i]);
+                    rentalProduct.setId(rental.lineIds[i]);
+                    result.add(rentalProduct);
+                }
+            return result;
+        }
+    }
+
+    /**
+     * @return The day of a date, as the database keeps it in a DATE column
+     */
+    private static java.sql.Date day(java.util.Date date) {
+        return java.sql.Date.valueOf(new java.sql.Date(date.getTime()).toLocalDate());
+    }
+
+    /**
+     * The state of a rental with changes not applied to the database yet,
+     * never changed once created
+     */
+    private static final class PendingRental {
+        final int id;
+        final java.sql.Date date;
+        final java.sql.Date returnDate;
+        final String status;
+        final byte returnStatus;
+        final boolean deleted;
+        final int[] lineIds;
+        final int[] productIds;
+        final int[] qtys;
+
+        // the unit of work with the last change, which publishes it
+        final WriteBehindUnit owner;
+
+        PendingRental(int id, java.sql.Date date, java.sql.Date returnDate, String status, byte returnStatus,
+                      boolean deleted, int[] lineIds, int[] productIds, int[] qtys, WriteBehindUnit owner) {
+            this.id = id;
+            this.date = date;
+            this.returnDate = returnDate;
+            this.status = status;
+            this.returnStatus = returnStatus;
+            this.deleted = deleted;
+            this.lineIds = lineIds;
+            this.productIds = productIds;
+            this.qtys = qtys;
+            this.owner = owner;
+        }
+
+        /**
+         * @return The journal record with the last change, counted since the storage
+         * was opened, or UNPUBLISHED
+         */
+        long record() {
+            return owner == null ? UNPUBLISHED : owner.record;
+        }
+
+        static PendingRental of(Rental rental) {
+            List<RentalProduct> lines = rental.getRentalProducts();
+            int[] lineIds = new int[lines.size()];
+            int[] productIds = new int[lines.size()];
+            int[] qtys = new int[lines.size()];
+            for (int i = 0; i < lineIds.length; i++) {
+                RentalProduct line = lines.get(i);
+                lineIds[i] = line.getId();
+                productIds[i] = line.getProduct().getId();
+                qtys[i] = line.getQty();
+            }
+            return new PendingRental(rental.getId(), new java.sql.Date(rental.getDate().getTime()),
+                    new java.sql.Date(rental.getReturnDate().getTime()), rental.getStatus(),
+                    rental.getReturnStatus(), false, lineIds, productIds, qtys, null);
+        }
+
+        PendingRental withStatus(String status, byte returnStatus) {
+            return new PendingRental(id, date, returnDate, status, returnStatus, deleted,
+                    lineIds, productIds, qtys, null);
+        }
+
+        PendingRental withLines(int[] addedIds, int[] addedProducts, int[] addedQtys) {
+            return new PendingRental(id, date, returnDate, status, returnStatus, deleted,
+                    concat(lineIds, addedIds), concat(productIds, addedProducts), concat(qtys, addedQtys),
+                    null);
+        }
+
+        PendingRental withoutLines() {
+            return new PendingRental(id, date, returnDate, status, returnStatus, deleted,
+                    new int[0], new int[0], new int[0], null);
+        }
+
+        PendingRental asDeleted() {
+            return new PendingRental(id, date, returnDate, status, returnStatus, true,
+                    new int[0], new int[0], new int[0], null);
+        }
+
+        PendingRental ownedBy(WriteBehindUnit owner) {
+            return new PendingRental(id, date, returnDate, status, returnStatus, deleted,
+                    lineIds, productIds, qtys, owner);
+        }
+
+        private static int[] concat(int[] first, int[] second) {
+            int[] all = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, all, first.length, second.length);
+            return all;
+        }
+    }
+}
@@ -4,24 +4,154 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
+/**
+ * Runs SQL scripts. Statements may span several lines and end with a
+ * semicolon (the last one may omit it); lines starting with -- are comments.
+ * A script without any semicolon is in the older format, with one statement
+ * per line.
+ *
+ * All the statements run through one Statement, consecutive INSERT, UPDATE
+ * and DELETE statements in batches, and the whole script in one transaction,
+ * unless the connection is already in one, which is then left to the caller
+ * to commit.
+ */
 public class RunSQLScript {
 
-	public static void runScript (Connection connection, String scriptFilename) throws FileNotFoundException, IOException, SQLException {
-		try (BufferedReader br = new BufferedReader(new FileReader(scriptFilename))) {
-		    String command;
-		    int i = 1;
-		    while ((command = br.readLine()) != null) {
-		        System.out.println(i + ": " + command);
-		        i++;
-		    	Statement statement = connection.createStatement();
-		        statement.execute(command.toString());
-		        statement.close();
-		    }
+	// the most statements sent to the database in one batch
+	private static final int MAX_BATCH_SIZE = 1000;
+
+	/**
+	 * Runs a script without printing its statements
+	 *
+	 * @param connection     The connection the script runs through
+	 * @param scriptFilename The script
+	 * @return The number of statements run
+	 */
+	public static int runScript (Connection connection, String scriptFilename) throws FileNotFoundException, IOException, SQLException {
+		return runScript(connection, scriptFilename, false);
+	}
+
+	/**
+	 * @param connection     The connection the script runs through
+	 * @param scriptFilename The script
+	 * @param echo           Whether to print each statement before it runs
+	 * @return The number of statements run
+	 */
+	public static int runScript (Connection connection, String scriptFilename, boolean echo) throws FileNotFoundException, IOException, SQLException {
+		try (Reader script = new FileReader(scriptFilename)) {
+			return runScript(connection, script, echo);
+		}
+	}
+
+	/**
+	 * @param connection The connection the script runs through
+	 * @param script     The text of the script
+	 * @param echo       Whether to print each statement before it runs
+	 * @return The number of statements run
+	 */
+	public static int runScript (Connection connection, Reader script, boolean echo) throws IOException, SQLException {
+		List<String> commands = parse(script);
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try (Statement statement = connection.createStatement()) {
+			int batched = 0;
+			for (int i = 0; i < commands.size(); i++) {
+				String command = commands.get(i);
+				if (echo)
+					System.out.println((i + 1) + ": " + command);
+				if (isDML(command)) {
+					statement.addBatch(command);
+					if (++batched == MAX_BATCH_SIZE) {
+						statement.executeBatch();
+						batched = 0;
+					}
+				} else {
+					if (batched > 0) {
+						statement.executeBatch();
+						batched = 0;
+					}
+					statement.execute(command);
+				}
+			}
+			if (batched > 0)
+				statement.executeBatch();
+			if (autoCommit)
+				connection.commit();
+		} catch (SQLException | RuntimeException e) {
+			if (autoCommit)
+				connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+		return commands.size();
+	}
+
+	private static boolean isDML(String command) {
+		String keyword = command.split("\\s", 2)[0].toUpperCase(Locale.ROOT);
+		return keyword.equals("INSERT") || keyword.equals("UPDATE") || keyword.equals("DELETE");
+	}
+
+	/**
+	 * Splits a script into its statements, without the semicolons and comments.
+	 * Semicolons and -- inside quotes belong to the statement. If no semicolon
+	 * ends a statement, each line is a statement, as scripts were written before.
+	 *
+	 * @param script The text of the script
+	 * @return Its statements
+	 * @throws IOException If the script cannot be read or a quote is not closed
+	 */
+	static List<String> parse(Reader script) throws IOException {
+		List<String> commands = new ArrayList<String>();
+		StringBuilder command = new StringBuilder();
+		char quote = 0;    // the quote the text is in, if any
+		boolean terminated = false;    // whether some statement ends with a semicolon
+		BufferedReader lines = new BufferedReader(script);
+		String line;
+		while ((line = lines.readLine()) != null) {
+			if (quote == 0 && line.trim().startsWith("--"))
+				continue;
+			for (int i = 0; i < line.length(); i++) {
+				char c = line.charAt(i);
+				if (quote != 0) {
+					if (c == quote)
+						quote = 0;    // a doubled quote closes and opens again
+				} else if (c == '\'' || c == '"') {
+					quote = c;
+				} else if (c == '-' && i + 1 < line.length() && line.charAt(i + 1) == '-') {
+					break;
+				} else if (c == ';') {
+					terminated = true;
+					add(commands, command);
+					continue;
+				}
+				command.append(c);
+			}
+			command.append('\n');
 		}
+		if (quote != 0)
+			throw new IOException("Unclosed quote in: " + command.toString().trim());
+		if (terminated)
+			add(commands, command);
+		else
+			for (String statement : command.toString().split("\n"))
+				add(commands, new StringBuilder(statement));
+		return commands;
 	}
-	
+
+	private static void add(List<String> commands, StringBuilder command) {
+		String text = command.toString().trim();
+		if (!text.isEmpty())
+			commands.add(text);
+		command.setLength(0);
+	}
+
 }
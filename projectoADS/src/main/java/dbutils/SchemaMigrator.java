@@ -0,0 +1,160 @@
+package dbutils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import dataaccess.DataSource;
+import dataaccess.PersistenceException;
+
+/**
+ * Brings the database schema up to date by applying, in order, the migration
+ * scripts it has not applied yet.
+ *
+ * Migration scripts live in a directory and are named V<version>__<description>.sql,
+ * e.g. V1__product_itemid_index.sql. The versions already applied are recorded
+ * in the SCHEMA_VERSION table, so each script runs once per database. Each
+ * migration runs in its own transaction together with its SCHEMA_VERSION record.
+ *
+ * A script must not change once applied. V1 to V3 predate semicolon-terminated
+ * scripts and keep one statement per line, which RunSQLScript still accepts
+ * from a script without any semicolon.
+ *
+ * @author ADS08
+ */
+public class SchemaMigrator {
+
+	public static final String MIGRATIONS_DIRECTORY = "data/scripts/migrations";
+
+	private static final Pattern MIGRATION_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+	private static final String CREATE_VERSION_TABLE_SQL =
+			"CREATE TABLE SCHEMA_VERSION (VERSION INTEGER PRIMARY KEY NOT NULL, DESCRIPTION VARCHAR(255), APPLIED_ON TIMESTAMP)";
+
+	private static final String GET_VERSION_SQL =
+			"SELECT MAX(VERSION) FROM SCHEMA_VERSION";
+
+	private static final String INSERT_VERSION_SQL =
+			"INSERT INTO SCHEMA_VERSION (VERSION, DESCRIPTION, APPLIED_ON) VALUES (?, ?, ?)";
+
+	private final String directory;
+
+	/**
+	 * Creates a migrator for the scripts in the default directory
+	 */
+	public SchemaMigrator() {
+		this(MIGRATIONS_DIRECTORY);
+	}
+
+	/**
+	 * Creates a migrator for the scripts in a directory
+	 *
+	 * @param directory The directory with the migration scripts
+	 */
+	public SchemaMigrator(String directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Applies the migrations newer than the current schema version
+	 *
+	 * @param connection The connection to the database to migrate
+	 * @return The number of migrations applied
+	 * @throws IOException In case a migration script cannot be read
+	 * @throws SQLException In case a migration fails; that migration is rolled back
+	 * and the following ones are not applied
+	 */
+	public int migrate(Connection connection) throws IOException, SQLException {
+		boolean autoCommit = connection.getAutoCommit();
+		try {
+			int current = currentVersion(connection);
+			int applied = 0;
+			for (Map.Entry<Integer, File> migration : migrations().entrySet()) {
+				if (migration.getKey() > current) {
+					apply(connection, migration.getKey(), migration.getValue());
+					applied++;
+				}
+			}
+			return applied;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * @return The version of the latest migration applied, creating the
+	 * SCHEMA_VERSION table if the database has none
+	 */
+	private int currentVersion(Connection connection) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		try (ResultSet tables = metaData.getTables(null, null, "SCHEMA_VERSION", new String[] { "TABLE" })) {
+			if (!tables.next()) {
+				connection.setAutoCommit(true);
+				try (Statement statement = connection.createStatement()) {
+					statement.execute(CREATE_VERSION_TABLE_SQL);
+				}
+				return 0;
+			}
+		}
+		try (Statement statement = connection.createStatement();
+			 ResultSet rs = statement.executeQuery(GET_VERSION_SQL)) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	/**
+	 * @return The migration scripts of the directory indexed by version
+	 */
+	private Map<Integer, File> migrations() throws FileNotFoundException {
+		File[] files = new File(directory).listFiles();
+		if (files == null)
+			throw new FileNotFoundException("Migrations directory " + directory + " not found");
+		Map<Integer, File> migrations = new TreeMap<Integer, File>();
+		for (File file : files) {
+			Matcher name = MIGRATION_NAME.matcher(file.getName());
+			if (name.matches() && migrations.put(Integer.parseInt(name.group(1)), file) != null)
+				throw new IllegalStateException("Two migrations with version " + name.group(1));
+		}
+		return migrations;
+	}
+
+	/**
+	 * Runs a migration script and records it, in a single transaction
+	 */
+	private void apply(Connection connection, int version, File script) throws IOException, SQLException {
+		String description = script.getName().replaceAll("^V\\d+__|\\.sql$", "").replace('_', ' ');
+		connection.setAutoCommit(false);
+		try {
+			RunSQLScript.runScript(connection, script.getPath());
+			try (PreparedStatement statement = connection.prepareStatement(INSERT_VERSION_SQL)) {
+				statement.setInt(1, version);
+				statement.setString(2, description);
+				statement.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+				statement.executeUpdate();
+			}
+			connection.commit();
+		} catch (IOException | SQLException | RuntimeException e) {
+			connection.rollback();
+			throw e;
+		}
+	}
+
+	public static void main(String[] args) throws PersistenceException, IOException, SQLException {
+		DataSource.INSTANCE.connect("jdbc:derby:data/derby/adsdb;create=false", "RentalSys", "");
+		int applied = new SchemaMigrator().migrate(DataSource.INSTANCE.getConnection());
+		System.out.println(applied + " migrations applied");
+		DataSource.INSTANCE.close();
+	}
+}
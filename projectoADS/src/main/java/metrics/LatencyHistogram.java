@@ -0,0 +1,143 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies, recorded without locks, whose percentiles are
+ * within about 3% of the recorded values.
+ *
+ * As in an HDR histogram the buckets grow with the values: each power of two
+ * is split into 32 buckets of the same width, so a bucket is never wider than
+ * 1/32 of the values it counts. Latencies from a nanosecond to a few hours
+ * fit in about 1300 counters; longer ones are counted in the last bucket.
+ *
+ * Recording is a few arithmetic operations and an atomic increment. The
+ * counters are read one at a time, so percentiles computed while latencies
+ * are recorded may miss the most recent ones.
+ *
+ * @author ADS08
+ */
+public class LatencyHistogram {
+
+    // each power of two is split into 2^SUB_BUCKET_BITS buckets
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // the largest power of two with buckets of its own, 2^44 ns being almost 5 hours
+    private static final int MAX_EXPONENT = 44;
+
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Records a latency
+     *
+     * @param nanos The latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos));
+        total.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * @return The number of latencies recorded
+     */
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * @param unit The unit of the result
+     * @return The mean of the latencies recorded, or zero if there are none
+     */
+    public double getMean(TimeUnit unit) {
+        long count = total.sum();
+        return count == 0 ? 0.0 : (double) sum.sum() / count / unit.toNanos(1);
+    }
+
+    /**
+     * @param unit The unit of the result
+     * @return The largest latency recorded
+     */
+    public double getMax(TimeUnit unit) {
+        return (double) max.get() / unit.toNanos(1);
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100
+     * @param unit       The unit of the result
+     * @return The latency below which the given percentage of the latencies
+     *         recorded are, rounded up to the end of its bucket, or zero if
+     *         there are none
+     */
+    public double getPercentile(double percentile, TimeUnit unit) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0)
+            return 0.0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        int bucket = 0;
+        while (bucket < BUCKETS - 1) {
+            seen += snapshot[bucket];
+            if (seen >= rank)
+                break;
+            bucket++;
+        }
+        long value = Math.min(highestValueOf(bucket), max.get());
+        return (double) value / unit.toNanos(1);
+    }
+
+    /**
+     * Forgets every latency recorded
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * @return The bucket counting a value
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return The largest value counted by a bucket
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
@@ -0,0 +1,242 @@
+package metrics;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of the application: one OperationMetrics per use case
+ * operation, catalog operation and SQL statement, created the first time
+ * each one runs. SQL statements are named by their shape, so statements
+ * differing only in literals or in the length of an IN list share one.
+ *
+ * Once registered, every metric is published as an MBean named
+ * projectoADS:type=(its group),name=(the operation), including the ones
+ * created afterwards, so they can be watched with jconsole or any JMX
+ * client. They can also be written periodically as text.
+ *
+ * @author ADS08
+ */
+public final class Metrics {
+
+    public static final String DOMAIN = "projectoADS";
+
+    // the groups of metrics
+    public static final String USE_CASE = "UseCase";
+    public static final String CATALOG = "Catalog";
+    public static final String SQL = "Sql";
+
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, OperationMetrics>> groups =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, OperationMetrics>>();
+
+    // other MBeans published and reported along with the metrics, by group and name
+    private static final Map<String, Map<String, Object>> others = new TreeMap<String, Map<String, Object>>();
+
+    // where the metrics are published, while they are
+    private static MBeanServer server;
+    private static final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    private static ScheduledExecutorService reporter;
+
+    // the parts of a SQL statement that do not change its shape
+    private static final Pattern SQL_STRING = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern SQL_NUMBER = Pattern.compile("(?<![\\w$.])\\d+(?:\\.\\d+)?(?![\\w$])");
+    private static final Pattern SQL_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern SQL_LISTS = Pattern.compile("\\(\\?\\.\\.\\.\\)(?:\\s*,\\s*\\(\\?\\.\\.\\.\\))+");
+    private static final Pattern SQL_SPACE = Pattern.compile("\\s+");
+
+    // the metrics of each SQL text prepared, so that its name is worked out once; texts
+    // with literals are many, so only the first ones are kept
+    private static final int MAX_SQL_TEXTS = 1000;
+    private static final ConcurrentHashMap<String, OperationMetrics> sqlTexts =
+            new ConcurrentHashMap<String, OperationMetrics>();
+
+    private Metrics() {
+    }
+
+    /**
+     * @param group The group of the operation
+     * @param name  The name of the operation
+     * @return The metrics of an operation, created if it has none yet
+     */
+    public static OperationMetrics of(String group, String name) {
+        ConcurrentHashMap<String, OperationMetrics> operations = groups.get(group);
+        if (operations != null) {
+            OperationMetrics metrics = operations.get(name);
+            if (metrics != null)
+                return metrics;
+        }
+        return create(group, name);
+    }
+
+    /**
+     * @param sql A SQL statement
+     * @return The metrics of the statement in the SQL group, created if it has none yet
+     */
+    public static OperationMetrics ofSql(String sql) {
+        OperationMetrics metrics = sqlTexts.get(sql);
+        if (metrics == null) {
+            metrics = of(SQL, sqlName(sql));
+            if (sqlTexts.size() < MAX_SQL_TEXTS)
+                sqlTexts.putIfAbsent(sql, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * @param sql A SQL statement
+     * @return The name of the statement in the SQL group: the statement with its
+     * literals replaced by ?, its lists of ? collapsed to (?...) and its
+     * whitespace collapsed, so the group does not grow with every id or list
+     */
+    public static String sqlName(String sql) {
+        String name = SQL_STRING.matcher(sql).replaceAll("?");
+        name = SQL_NUMBER.matcher(name).replaceAll("?");
+        name = SQL_LIST.matcher(name).replaceAll("(?...)");
+        name = SQL_LISTS.matcher(name).replaceAll("(?...), ...");
+        return SQL_SPACE.matcher(name).replaceAll(" ").trim();
+    }
+
+    private static synchronized OperationMetrics create(String group, String name) {
+        ConcurrentHashMap<String, OperationMetrics> operations =
+                groups.computeIfAbsent(group, g -> new ConcurrentHashMap<String, OperationMetrics>());
+        OperationMetrics metrics = operations.get(name);
+        if (metrics == null) {
+            metrics = new OperationMetrics(name);
+            operations.put(name, metrics);
+            if (server != null)
+                register(group, name, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Publishes the metrics in the platform MBean server, and the ones created
+     * from now on
+     */
+    public static synchronized void registerMBeans() {
+        if (server != null)
+            return;
+        server = ManagementFactory.getPlatformMBeanServer();
+        for (Map.Entry<String, ConcurrentHashMap<String, OperationMetrics>> group : groups.entrySet())
+            for (OperationMetrics metrics : group.getValue().values())
+                register(group.getKey(), metrics.getName(), metrics);
+        for (Map.Entry<String, Map<String, Object>> group : others.entrySet())
+            for (Map.Entry<String, Object> mbean : group.getValue().entrySet())
+                register(group.getKey(), mbean.getKey(), mbean.getValue());
+    }
+
+    /**
+     * Adds some other MBean to be published along with the metrics, and
+     * written in the reports as its toString
+     *
+     * @param group The group of the MBean
+     * @param name  The name of the MBean
+     * @param mbean The MBean, replacing any other with the same group and name
+     */
+    public static synchronized void addMBean(String group, String name, Object mbean) {
+        others.computeIfAbsent(group, g -> new TreeMap<String, Object>()).put(name, mbean);
+        if (server != null)
+            register(group, name, mbean);
+    }
+
+    /**
+     * Stops publishing the metrics
+     */
+    public static synchronized void unregisterMBeans() {
+        if (server == null)
+            return;
+        for (ObjectName objectName : registered)
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                // already gone
+            }
+        registered.clear();
+        server = null;
+    }
+
+    private static void register(String group, String name, Object mbean) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + group + ",name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(mbean, objectName);
+            if (!registered.contains(objectName))
+                registered.add(objectName);
+        } catch (JMException e) {
+            // the metrics are still recorded, only not published
+        }
+    }
+
+    /**
+     * Forgets what every metric recorded so far
+     */
+    public static void reset() {
+        for (ConcurrentHashMap<String, OperationMetrics> operations : groups.values())
+            for (OperationMetrics metrics : operations.values())
+                metrics.reset();
+    }
+
+    /**
+     * Writes the metrics of the operations that ran, a line per operation
+     *
+     * @param out Where to write them
+     */
+    public static void report(PrintStream out) {
+        StringBuilder text = new StringBuilder();
+        text.append("-- Metrics at ").append(new Date()).append(System.lineSeparator());
+        for (Map.Entry<String, ConcurrentHashMap<String, OperationMetrics>> group : new TreeMap<>(groups).entrySet())
+            for (OperationMetrics metrics : new TreeMap<>(group.getValue()).values())
+                if (metrics.getCount() > 0)
+                    text.append(group.getKey()).append(' ').append(metrics).append(System.lineSeparator());
+        synchronized (Metrics.class) {
+            for (Map.Entry<String, Map<String, Object>> group : others.entrySet())
+                for (Map.Entry<String, Object> mbean : group.getValue().entrySet())
+                    text.append(group.getKey()).append(' ').append(mbean.getKey()).append(": ")
+                            .append(mbean.getValue()).append(System.lineSeparator());
+        }
+        out.print(text);
+        out.flush();
+    }
+
+    /**
+     * Writes the metrics periodically, in a background thread
+     *
+     * @param out    Where to write them
+     * @param period How long to wait between reports
+     * @param unit   The unit of the period
+     */
+    public static synchronized void startReport(PrintStream out, long period, TimeUnit unit) {
+        stopReport();
+        reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> report(out), period, period, unit);
+    }
+
+    /**
+     * Stops writing the metrics periodically
+     */
+    public static synchronized void stopReport() {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+        }
+    }
+}
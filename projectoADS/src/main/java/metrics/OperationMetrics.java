@@ -0,0 +1,133 @@
+package metrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How many times an operation ran, how many of them failed, and how long
+ * they took
+ *
+ * @author ADS08
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+
+    /**
+     * Some work whose duration is measured
+     *
+     * @param <T> The type of its result
+     * @param <E> The type of the exception it fails with
+     */
+    public interface Timed<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private final String name;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder failures = new LongAdder();
+    private volatile long resetAt = System.nanoTime();
+
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Runs some work, recording how long it took and whether it failed
+     *
+     * @param work The work to run
+     * @return The result of the work
+     * @throws E If the work fails
+     */
+    public <T, E extends Exception> T time(Timed<T, E> work) throws E {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = work.run();
+            failed = false;
+            return result;
+        } finally {
+            record(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Records a run of the operation
+     *
+     * @param nanos  How long it took, in nanoseconds
+     * @param failed Whether it failed
+     */
+    public void record(long nanos, boolean failed) {
+        latencies.record(nanos);
+        if (failed)
+            failures.increment();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - resetAt) / 1e9;
+        return seconds <= 0 ? 0.0 : latencies.getCount() / seconds;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latencies.getMean(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latencies.getPercentile(50, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getP90Millis() {
+        return latencies.getPercentile(90, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latencies.getPercentile(99, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getP999Millis() {
+        return latencies.getPercentile(99.9, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latencies.getMax(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void reset() {
+        latencies.reset();
+        failures.reset();
+        resetAt = System.nanoTime();
+    }
+
+    /**
+     * @return A line with the metrics, as written in the text reports
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "%s: count %d, failures %d, %.1f/s, mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                name, getCount(), getFailures(), getThroughput(), getMeanMillis(),
+                getP50Millis(), getP99Millis(), getMaxMillis());
+    }
+}
@@ -0,0 +1,46 @@
+package metrics;
+
+/**
+ * The metrics of an operation, as published through JMX
+ *
+ * @author ADS08
+ */
+public interface OperationMetricsMBean {
+
+    /**
+     * @return The name of the operation
+     */
+    String getName();
+
+    /**
+     * @return How many times the operation ran since the metrics were reset
+     */
+    long getCount();
+
+    /**
+     * @return How many of those runs failed
+     */
+    long getFailures();
+
+    /**
+     * @return The mean number of runs per second since the metrics were reset
+     */
+    double getThroughput();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+
+    /**
+     * Forgets the runs recorded so far
+     */
+    void reset();
+}
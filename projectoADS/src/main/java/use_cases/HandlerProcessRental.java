@@ -5,9 +5,13 @@ import business.CatalogRental;
 import business.Rental;
 
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
- * Includes operations regarding Rent Items Use Case (UC1)
+ * Includes operations regarding Rent Items Use Case (UC1).
+ * Each operation runs as a single unit of work on the catalog's storage.
  *
  * @author ADS08
  */
@@ -15,6 +19,9 @@ public class HandlerProcessRental {
 
     private CatalogRental rentalCatalog;
 
+    // where the asynchronous operations run
+    private final Executor executor;
+
     /**
      * Creates a handler for the process rental use case given
      * the rental, and product catalogs which contain the relevant
@@ -23,7 +30,19 @@ public class HandlerProcessRental {
      * @param rentalCatalog A rental's catalog
      */
     public HandlerProcessRental(CatalogRental rentalCatalog) {
+        this(rentalCatalog, UseCaseExecutors.shared());
+    }
+
+    /**
+     * Creates a handler for the process rental use case whose asynchronous
+     * operations run on a given executor
+     *
+     * @param rentalCatalog A rental's catalog
+     * @param executor      Where the asynchronous operations run
+     */
+    public HandlerProcessRental(CatalogRental rentalCatalog, Executor executor) {
         this.rentalCatalog = rentalCatalog;
+        this.executor = executor;
     }
 
     /**
@@ -32,7 +51,8 @@ public class HandlerProcessRental {
      * @throws ApplicationException In case the rental fails to be created
      */
     public Rental newRental(Date returnDate) throws ApplicationException {
-        return rentalCatalog.newRental(returnDate);
+        return Transactions.inTransaction("HandlerProcessRental.newRental",
+                rentalCatalog.getStorage(), () -> rentalCatalog.newRental(returnDate));
     }
 
     /**
@@ -46,7 +66,28 @@ public class HandlerProcessRental {
      *                              to proceed with the rental
      */
     public void addProductToRental(Rental rental, int prod_code, int qty) throws ApplicationException {
-        rentalCatalog.addProductToRental(rental, prod_code, qty);
+        Transactions.inTransaction("HandlerProcessRental.addProductToRental",
+                rentalCatalog.getStorage(), () -> {
+            rentalCatalog.addProductToRental(rental, prod_code, qty);
+            return null;
+        });
+    }
+
+    /**
+     * Adds several products to a rental at once
+     *
+     * @param rental The current rental
+     * @param items  The quantity of each product, indexed by the product code
+     * @throws ApplicationException When the rental is closed, some product code
+     *                              is not part of the product's catalog, or when there is not enough stock
+     *                              to proceed with the rental. In that case no product is added.
+     */
+    public void addProductsToRental(Rental rental, Map<Integer, Integer> items) throws ApplicationException {
+        Transactions.inTransaction("HandlerProcessRental.addProductsToRental",
+                rentalCatalog.getStorage(), () -> {
+            rentalCatalog.addProductsToRental(rental, items);
+            return null;
+        });
     }
 
     /**
@@ -56,7 +97,10 @@ public class HandlerProcessRental {
      * @throws ApplicationException
      */
     public void closeRental(Rental rental) throws ApplicationException {
-        rentalCatalog.closeRental(rental);
+        Transactions.inTransaction("HandlerProcessRental.closeRental", rentalCatalog.getStorage(), () -> {
+            rentalCatalog.closeRental(rental);
+            return null;
+        });
     }
 
     /**
@@ -66,7 +110,75 @@ public class HandlerProcessRental {
      * @throws ApplicationException
      */
     public void deleteRental(Rental rental) throws ApplicationException {
-        rentalCatalog.deleteRental(rental);
+        Transactions.inTransaction("HandlerProcessRental.deleteRental", rentalCatalog.getStorage(), () -> {
+            rentalCatalog.deleteRental(rental);
+            return null;
+        });
+    }
+
+    /**
+     * Creates a new rental on the handler's executor
+     *
+     * @return A future completed with the new rental, or with the
+     *         ApplicationException if it fails to be created
+     */
+    public CompletableFuture<Rental> newRentalAsync(Date returnDate) {
+        return Transactions.inTransactionAsync("HandlerProcessRental.newRental",
+                rentalCatalog.getStorage(), executor,
+                () -> rentalCatalog.newRental(returnDate));
     }
 
+    /**
+     * Adds a product to a rental on the handler's executor, in a unit of work
+     *
+     * @return A future completed once the product is added, or with the
+     *         ApplicationException if it cannot be added, e.g. for lack of stock
+     */
+    public CompletableFuture<Void> addProductToRentalAsync(Rental rental, int prod_code, int qty) {
+        return Transactions.inTransactionAsync("HandlerProcessRental.addProductToRental",
+                rentalCatalog.getStorage(), executor, () -> {
+            rentalCatalog.addProductToRental(rental, prod_code, qty);
+            return null;
+        });
+    }
+
+    /**
+     * Adds several products to a rental at once on the handler's executor
+     *
+     * @return A future completed once the products are added, or with the
+     *         ApplicationException if none could be added
+     */
+    public CompletableFuture<Void> addProductsToRentalAsync(Rental rental, Map<Integer, Integer> items) {
+        return Transactions.inTransactionAsync("HandlerProcessRental.addProductsToRental",
+                rentalCatalog.getStorage(), executor, () -> {
+            rentalCatalog.addProductsToRental(rental, items);
+            return null;
+        });
+    }
+
+    /**
+     * Closes an open rental on the handler's executor
+     *
+     * @return A future completed once the rental is closed
+     */
+    public CompletableFuture<Void> closeRentalAsync(Rental rental) {
+        return Transactions.inTransactionAsync("HandlerProcessRental.closeRental",
+                rentalCatalog.getStorage(), executor, () -> {
+            rentalCatalog.closeRental(rental);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes a rental on the handler's executor
+     *
+     * @return A future completed once the rental is deleted
+     */
+    public CompletableFuture<Void> deleteRentalAsync(Rental rental) {
+        return Transactions.inTransactionAsync("HandlerProcessRental.deleteRental",
+                rentalCatalog.getStorage(), executor, () -> {
+            rentalCatalog.deleteRental(rental);
+            return null;
+        });
+    }
 }
@@ -5,8 +5,12 @@ import business.CatalogRental;
 import business.Rental;
 import dataaccess.PersistenceException;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
- * Includes operations regarding Return Rented Items Use Case (UC2)
+ * Includes operations regarding Return Rented Items Use Case (UC2).
+ * Each operation runs as a single unit of work on the catalog's storage.
  *
  * @author ADS08
  */
@@ -14,8 +18,23 @@ public class HandlerProcessReturnRentedItems {
 
     private CatalogRental rentalCatalog;
 
+    // where the asynchronous operations run
+    private final Executor executor;
+
     public HandlerProcessReturnRentedItems(CatalogRental rentalCatalog) {
+        this(rentalCatalog, UseCaseExecutors.shared());
+    }
+
+    /**
+     * Creates a handler for the return rented items use case whose
+     * asynchronous operations run on a given executor
+     *
+     * @param rentalCatalog A rental's catalog
+     * @param executor      Where the asynchronous operations run
+     */
+    public HandlerProcessReturnRentedItems(CatalogRental rentalCatalog, Executor executor) {
         this.rentalCatalog = rentalCatalog;
+        this.executor = executor;
     }
 
     /**
@@ -26,7 +45,8 @@ public class HandlerProcessReturnRentedItems {
      * @throws ApplicationException
      */
     public Rental getRental(int rentalId) throws ApplicationException {
-        return rentalCatalog.getRental(rentalId);
+        return Transactions.inTransaction("HandlerProcessReturnRentedItems.getRental",
+                rentalCatalog.getStorage(), () -> rentalCatalog.getRental(rentalId));
     }
 
     /**
@@ -36,7 +56,26 @@ public class HandlerProcessReturnRentedItems {
      * @throws ApplicationException
      */
     public void setRentalAsReturned(Rental rental) throws ApplicationException {
-        rentalCatalog.setRentalAsReturned(rental);
+        Transactions.inTransaction("HandlerProcessReturnRentedItems.setRentalAsReturned",
+                rentalCatalog.getStorage(), () -> {
+            rentalCatalog.setRentalAsReturned(rental);
+            return null;
+        });
+    }
+
+    /**
+     * Returns all the products of a rental and sets it as returned, in a single
+     * transaction with a fixed number of database round trips
+     *
+     * @param rental rental object
+     * @throws ApplicationException If the rental was already returned
+     */
+    public void returnRental(Rental rental) throws ApplicationException {
+        Transactions.inTransaction("HandlerProcessReturnRentedItems.returnRental",
+                rentalCatalog.getStorage(), () -> {
+            rentalCatalog.returnRental(rental);
+            return null;
+        });
     }
 
     /**
@@ -46,7 +85,11 @@ public class HandlerProcessReturnRentedItems {
      * @throws ApplicationException
      */
     public void deleteRental(Rental rental) throws ApplicationException {
-        rentalCatalog.deleteRental(rental);
+        Transactions.inTransaction("HandlerProcessReturnRentedItems.deleteRental",
+                rentalCatalog.getStorage(), () -> {
+            rentalCatalog.deleteRental(rental);
+            return null;
+        });
     }
 
     /**
@@ -58,6 +101,76 @@ public class HandlerProcessReturnRentedItems {
      * @throws PersistenceException
      */
     public void returnProductFromRental(int prod_id, int qty) throws ApplicationException, PersistenceException {
-        rentalCatalog.returnProductFromRental(prod_id, qty);
+        Transactions.inTransaction("HandlerProcessReturnRentedItems.returnProductFromRental",
+                rentalCatalog.getStorage(), () -> {
+            rentalCatalog.returnProductFromRental(prod_id, qty);
+            return null;
+        });
+    }
+
+    /**
+     * Gets an existing rental on the handler's executor
+     *
+     * @return A future completed with the rental, or with the
+     *         ApplicationException if it does not exist
+     */
+    public CompletableFuture<Rental> getRentalAsync(int rentalId) {
+        return Transactions.inTransactionAsync("HandlerProcessReturnRentedItems.getRental",
+                rentalCatalog.getStorage(), executor,
+                () -> rentalCatalog.getRental(rentalId));
+    }
+
+    /**
+     * Sets a rental as having had its items returned, on the handler's executor
+     *
+     * @return A future completed once the status is updated
+     */
+    public CompletableFuture<Void> setRentalAsReturnedAsync(Rental rental) {
+        return Transactions.inTransactionAsync("HandlerProcessReturnRentedItems.setRentalAsReturned",
+                rentalCatalog.getStorage(), executor, () -> {
+            rentalCatalog.setRentalAsReturned(rental);
+            return null;
+        });
+    }
+
+    /**
+     * Returns all the products of a rental on the handler's executor, in a
+     * single unit of work
+     *
+     * @return A future completed once the rental is returned, or with the
+     *         ApplicationException if it was already returned
+     */
+    public CompletableFuture<Void> returnRentalAsync(Rental rental) {
+        return Transactions.inTransactionAsync("HandlerProcessReturnRentedItems.returnRental",
+                rentalCatalog.getStorage(), executor, () -> {
+            rentalCatalog.returnRental(rental);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes a rental on the handler's executor
+     *
+     * @return A future completed once the rental is deleted
+     */
+    public CompletableFuture<Void> deleteRentalAsync(Rental rental) {
+        return Transactions.inTransactionAsync("HandlerProcessReturnRentedItems.deleteRental",
+                rentalCatalog.getStorage(), executor, () -> {
+            rentalCatalog.deleteRental(rental);
+            return null;
+        });
+    }
+
+    /**
+     * Returns a single product of a rental on the handler's executor
+     *
+     * @return A future completed once its stock is given back
+     */
+    public CompletableFuture<Void> returnProductFromRentalAsync(int prod_id, int qty) {
+        return Transactions.inTransactionAsync("HandlerProcessReturnRentedItems.returnProductFromRental",
+                rentalCatalog.getStorage(), executor, () -> {
+            rentalCatalog.returnProductFromRental(prod_id, qty);
+            return null;
+        });
     }
 }
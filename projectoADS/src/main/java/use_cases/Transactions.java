@@ -0,0 +1,83 @@
+package use_cases;
+
+import business.ApplicationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import dataaccess.PersistenceException;
+import dataaccess.Storage;
+import dataaccess.UnitOfWork;
+import metrics.Metrics;
+
+/**
+ * Runs the use case operations of the handlers, each one as a single unit
+ * of work: either all of its changes to the storage are committed or none is.
+ * How long each operation takes is recorded in its metrics.
+ *
+ * @author ADS08
+ */
+final class Transactions {
+
+    private Transactions() {
+    }
+
+    /**
+     * An operation of a use case
+     *
+     * @param <T> The type of the result of the operation
+     */
+    interface Work<T> {
+        T run() throws ApplicationException;
+    }
+
+    /**
+     * Runs an operation in a unit of work, committing it if the operation
+     * succeeds and rolling it back otherwise
+     *
+     * @param operation The name of the operation, in the metrics
+     * @param storage   The storage the operation works on
+     * @param work      The operation to run
+     * @return The result of the operation
+     * @throws ApplicationException If the operation fails or the unit of work
+     *                              cannot be started or committed
+     */
+    static <T> T inTransaction(String operation, Storage storage, Work<T> work) throws ApplicationException {
+        return Metrics.of(Metrics.USE_CASE, operation).time(() -> {
+            try (UnitOfWork unit = storage.beginUnitOfWork()) {
+                T result = work.run();
+                unit.commit();
+                return result;
+            } catch (PersistenceException e) {
+                throw new ApplicationException("Unable to complete the operation", e);
+            }
+        });
+    }
+
+    /**
+     * Runs an operation in a unit of work on a thread of the given executor
+     *
+     * @param operation The name of the operation, in the metrics
+     * @param storage   The storage the operation works on
+     * @param executor  Where the operation runs
+     * @param work      The operation to run
+     * @return A future completed with the result of the operation, or with the
+     *         ApplicationException it failed with
+     */
+    static <T> CompletableFuture<T> inTransactionAsync(String operation, Storage storage, Executor executor,
+                                                       Work<T> work) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(inTransaction(operation, storage, work));
+                } catch (ApplicationException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
@@ -0,0 +1,165 @@
+package use_cases;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dataaccess.DataSource;
+
+/**
+ * Creates the executors the handlers run their asynchronous operations on.
+ *
+ * On JDK 21 or later each operation runs on its own virtual thread, so
+ * thousands of operations can be waiting for the database at little cost,
+ * and at most maxConcurrency of them run at the same time. On older JDKs
+ * the operations run on a fixed pool of maxConcurrency threads. Either way
+ * operations beyond that limit wait in line instead of holding threads
+ * blocked on the connection pool.
+ *
+ * @author ADS08
+ */
+public final class UseCaseExecutors {
+
+    // Executors.newVirtualThreadPerTaskExecutor, when the JDK has it
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = virtualThreadFactoryMethod();
+
+    private static volatile ExecutorService shared;
+
+    private UseCaseExecutors() {
+    }
+
+    /**
+     * @return Whether the operations run on virtual threads
+     */
+    public static boolean hasVirtualThreads() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that runs at most maxConcurrency operations at a time
+     *
+     * @param maxConcurrency The maximum number of operations running at the same time
+     * @return A new executor, to be shut down by the caller
+     */
+    public static ExecutorService newExecutor(int maxConcurrency) {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("Invalid concurrency " + maxConcurrency);
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                ExecutorService virtual = (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+                return new BoundedExecutor(virtual, maxConcurrency);
+            } catch (ReflectiveOperationException e) {
+                // fall back to platform threads
+            }
+        }
+        return Executors.newFixedThreadPool(maxConcurrency, new WorkerThreads());
+    }
+
+    /**
+     * Creates an executor that runs as many operations at a time as the
+     * DataSource has connections
+     *
+     * @return A new executor, to be shut down by the caller
+     */
+    public static ExecutorService newExecutor() {
+        int connections = DataSource.INSTANCE.getMaxConnections();
+        return newExecutor(connections > 0 ? connections : DataSource.DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @return The executor used by the handlers created without one. It is
+     * created the first time it is needed, sized after the DataSource, and
+     * its threads do not keep the application running.
+     */
+    public static ExecutorService shared() {
+        ExecutorService current = shared;
+        if (current == null) {
+            synchronized (UseCaseExecutors.class) {
+                current = shared;
+                if (current == null)
+                    shared = current = newExecutor();
+            }
+        }
+        return current;
+    }
+
+    private static Method virtualThreadFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Daemon platform threads, named after the pool
+     */
+    private static final class WorkerThreads implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "use-case-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Runs each operation on a thread of the given executor, letting only
+     * a bounded number of them past a semaphore at the same time. Waiting
+     * happens on the operation's own thread, so submitting never blocks.
+     */
+    private static final class BoundedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        BoundedExecutor(ExecutorService delegate, int maxConcurrency) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrency, true);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            delegate.execute(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package business;
+
+import static business.Fixtures.daysFromNow;
+import static org.junit.Assert.*;
+
+import java.sql.PreparedStatement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import dataaccess.DataSource;
+import dataaccess.ProductMapper;
+import dataaccess.RentalMapper;
+import use_cases.HandlerProcessRental;
+
+public class AddProductsToRentalTest {
+
+    // products of the tests only: two in stock and one out of stock
+    private static final int IN_STOCK_A = 5001, IN_STOCK_B = 5002, OUT_OF_STOCK = 5003;
+
+    private static RentalSys app;
+    private static CatalogRental rentalCatalog;
+    private static CatalogProduct productCatalog;
+    private static HandlerProcessRental hpr;
+
+    private Rental rental;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        app = new RentalSys();
+        app.start();
+        rentalCatalog = new CatalogRental();
+        productCatalog = new CatalogProduct();
+        hpr = new HandlerProcessRental(rentalCatalog);
+    }
+
+    @Before
+    public void setup() throws Exception {
+        execute("INSERT INTO product (id, itemid, description, price, qty) VALUES "
+                + "(5000001, " + IN_STOCK_A + ", 'Test A', 10, 2), "
+                + "(5000002, " + IN_STOCK_B + ", 'Test B', 20, 2), "
+                + "(5000003, " + OUT_OF_STOCK + ", 'Test C', 30, 0)");
+        rental = hpr.newRental(daysFromNow(10));
+    }
+
+    @After
+    public void finish() throws Exception {
+        execute("DELETE FROM rentalproduct WHERE rental_id = " + rental.getId());
+        execute("DELETE FROM rental WHERE id = " + rental.getId());
+        execute("DELETE FROM product WHERE id BETWEEN 5000001 AND 5000003");
+        ProductMapper.clearCache();
+        RentalMapper.clearCache();
+    }
+
+    @AfterClass
+    public static void finishAfterClass() {
+        app.stop();
+    }
+
+    @Test
+    public void test_add_products() throws ApplicationException {
+        hpr.addProductsToRental(rental, items(IN_STOCK_A, IN_STOCK_B));
+
+        assertEquals(2, rental.getRentalProducts().size());
+        assertEquals(1, productCatalog.getProduct(IN_STOCK_A).getStock());
+        assertEquals(1, productCatalog.getProduct(IN_STOCK_B).getStock());
+
+        // the ids of the rental products are the ones stored for each product
+        List<RentalProduct> stored = rentalCatalog.getRental(rental.getId()).getRentalProducts();
+        assertEquals(2, stored.size());
+        for (RentalProduct added : rental.getRentalProducts())
+            assertEquals(added.getProduct().getId(), productOf(stored, added.getId()));
+    }
+
+    @Test
+    public void test_add_products_without_stock() throws ApplicationException {
+        try {
+            hpr.addProductsToRental(rental, items(IN_STOCK_A, OUT_OF_STOCK));
+            fail("The rental should not have been updated");
+        } catch (ApplicationException e) {
+            // expected
+        }
+        assertNothingAdded();
+    }
+
+    @Test
+    public void test_add_unknown_product() throws ApplicationException {
+        try {
+            hpr.addProductsToRental(rental, items(IN_STOCK_A, 5999));
+            fail("The rental should not have been updated");
+        } catch (ApplicationException e) {
+            // expected
+        }
+        assertNothingAdded();
+    }
+
+    private void assertNothingAdded() throws ApplicationException {
+        assertTrue(rental.getRentalProducts().isEmpty());
+        assertTrue(rentalCatalog.getRental(rental.getId()).getRentalProducts().isEmpty());
+        assertEquals(2, productCatalog.getProduct(IN_STOCK_A).getStock());
+        assertEquals(0, productCatalog.getProduct(OUT_OF_STOCK).getStock());
+    }
+
+    private static Map<Integer, Integer> items(int... itemIDs) {
+        Map<Integer, Integer> items = new LinkedHashMap<Integer, Integer>();
+        for (int itemID : itemIDs)
+            items.put(itemID, 1);
+        return items;
+    }
+
+    private static int productOf(List<RentalProduct> lines, int rentalProductId) {
+        for (RentalProduct line : lines)
+            if (line.getId() == rentalProductId)
+                return line.getProduct().getId();
+        return -1;
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(sql)) {
+            statement.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package business;
+
+import java.util.Calendar;
+import java.util.Date;
+
+import dataaccess.MemoryStorage;
+
+/**
+ * What the business tests share: the dates of new rentals and a storage with
+ * two products, one plentiful and one with a single unit.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return A date some days from now, e.g. the return date of a new rental
+     */
+    static Date daysFromNow(int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_YEAR, days);
+        return calendar.getTime();
+    }
+
+    /**
+     * @return A storage in memory with 20 units of itemID 101 and 1 unit of itemID 102
+     */
+    static MemoryStorage memoryStorage() {
+        MemoryStorage storage = new MemoryStorage();
+        storage.addProduct(1001, 101, "GTX 1080", 700, 20);
+        storage.addProduct(1002, 102, "Titan V", 3000, 1);
+        return storage;
+    }
+}
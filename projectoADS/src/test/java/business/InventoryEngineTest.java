@@ -0,0 +1,132 @@
+package business;
+
+import static business.Fixtures.daysFromNow;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dataaccess.MemoryStorage;
+import dataaccess.UnitOfWork;
+import use_cases.HandlerProcessRental;
+import use_cases.HandlerProcessReturnRentedItems;
+import use_cases.UseCaseExecutors;
+
+public class InventoryEngineTest {
+
+    private MemoryStorage storage;
+    private InventoryEngine inventory;
+    private CatalogRental rentalCatalog;
+    private CatalogProduct productCatalog;
+
+    @Before
+    public void setup() {
+        storage = Fixtures.memoryStorage();
+        inventory = new InventoryEngine(storage);
+        rentalCatalog = new CatalogRental(storage, inventory);
+        productCatalog = new CatalogProduct(storage);
+    }
+
+    @Test
+    public void test_stock_is_reconciled_later() throws Exception {
+        HandlerProcessRental hpr = new HandlerProcessRental(rentalCatalog);
+        Rental rental = hpr.newRental(daysFromNow(10));
+        hpr.addProductToRental(rental, 101, 1);
+        hpr.addProductToRental(rental, 102, 1);
+        hpr.closeRental(rental);
+
+        assertEquals(19, inventory.getStock(1001));
+        assertEquals(0, inventory.getStock(1002));
+        assertEquals(20, productCatalog.getProduct(101).getStock());
+        try {
+            hpr.addProductToRental(hpr.newRental(daysFromNow(10)), 102, 1);
+            fail("Titan V is out of stock");
+        } catch (ApplicationException e) {
+            // refused by the inventory
+        }
+
+        inventory.reconcile();
+        assertEquals(19, productCatalog.getProduct(101).getStock());
+        assertEquals(0, productCatalog.getProduct(102).getStock());
+
+        new HandlerProcessReturnRentedItems(rentalCatalog).returnRental(rental);
+        inventory.close();
+        assertEquals(20, productCatalog.getProduct(101).getStock());
+        assertEquals(1, productCatalog.getProduct(102).getStock());
+    }
+
+    @Test
+    public void test_concurrent_rentals_do_not_oversell() throws Exception {
+        ExecutorService executor = UseCaseExecutors.newExecutor(8);
+        try {
+            HandlerProcessRental async = new HandlerProcessRental(rentalCatalog, executor);
+            List<CompletableFuture<Boolean>> rentals = new ArrayList<CompletableFuture<Boolean>>();
+            for (int i = 0; i < 100; i++)
+                rentals.add(async.newRentalAsync(daysFromNow(10))
+                        .thenCompose(rental -> async.addProductToRentalAsync(rental, 101, 1))
+                        .handle((done, failure) -> failure == null));
+
+            int rented = 0;
+            for (CompletableFuture<Boolean> rental : rentals)
+                if (rental.get())
+                    rented++;
+            assertEquals(20, rented);
+            inventory.close();
+            assertEquals(0, productCatalog.getProduct(101).getStock());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_reserved_stock_is_given_back_on_failure() throws Exception {
+        HandlerProcessRental hpr = new HandlerProcessRental(rentalCatalog);
+        Rental rental = hpr.newRental(daysFromNow(10));
+        hpr.deleteRental(rental);
+        Map<Integer, Integer> items = new LinkedHashMap<Integer, Integer>();
+        items.put(101, 1);
+        items.put(102, 1);
+        try {
+            hpr.addProductsToRental(rental, items);
+            fail("The rental does not exist");
+        } catch (ApplicationException e) {
+            // the units were reserved before the rental lines failed
+        }
+        assertEquals(20, inventory.getStock(1001));
+        assertEquals(1, inventory.getStock(1002));
+
+        // the outer unit of work is not committed, so neither is the rental
+        Rental other = hpr.newRental(daysFromNow(10));
+        UnitOfWork unit = storage.beginUnitOfWork();
+        try {
+            hpr.addProductToRental(other, 102, 1);
+            assertEquals(0, inventory.getStock(1002));
+        } finally {
+            unit.close();    // not committed, so rolled back
+        }
+        assertEquals(1, inventory.getStock(1002));
+    }
+
+    @Test
+    public void test_returned_stock_is_given_back_after_commit() throws Exception {
+        HandlerProcessRental hpr = new HandlerProcessRental(rentalCatalog);
+        Rental rental = hpr.newRental(daysFromNow(10));
+        hpr.addProductToRental(rental, 101, 1);
+        hpr.closeRental(rental);
+        HandlerProcessReturnRentedItems hrr = new HandlerProcessReturnRentedItems(rentalCatalog);
+
+        try (UnitOfWork unit = storage.beginUnitOfWork()) {
+            hrr.returnRental(rental);
+            assertEquals(19, inventory.getStock(1001));
+            unit.commit();
+        }
+        assertEquals(20, inventory.getStock(1001));
+    }
+}
@@ -0,0 +1,143 @@
+package business;
+
+import static business.Fixtures.daysFromNow;
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dataaccess.MemoryStorage;
+import dataaccess.UnitOfWork;
+import use_cases.HandlerProcessRental;
+import use_cases.HandlerProcessReturnRentedItems;
+import use_cases.UseCaseExecutors;
+
+public class MemoryStorageTest {
+
+    private MemoryStorage storage;
+    private CatalogRental rentalCatalog;
+    private CatalogProduct productCatalog;
+    private HandlerProcessRental hpr;
+    private HandlerProcessReturnRentedItems hprri;
+
+    @Before
+    public void setup() {
+        storage = Fixtures.memoryStorage();
+        rentalCatalog = new CatalogRental(storage);
+        productCatalog = new CatalogProduct(storage);
+        hpr = new HandlerProcessRental(rentalCatalog);
+        hprri = new HandlerProcessReturnRentedItems(rentalCatalog);
+    }
+
+    @Test
+    public void test_rent_and_return() throws ApplicationException {
+        Rental rental = hpr.newRental(daysFromNow(10));
+        hpr.addProductToRental(rental, 101, 1);
+        hpr.addProductToRental(rental, 102, 1);
+        hpr.closeRental(rental);
+        assertEquals(19, productCatalog.getProduct(101).getStock());
+        assertEquals(0, productCatalog.getProduct(102).getStock());
+
+        Rental stored = hprri.getRental(rental.getId());
+        assertFalse(stored.isOpen());
+        assertEquals(2, stored.getRentalProducts().size());
+        assertEquals(rental.total(), stored.total(), 0.0);
+
+        hprri.returnRental(stored);
+        assertTrue(hprri.getRental(rental.getId()).isReturned());
+        assertEquals(20, productCatalog.getProduct(101).getStock());
+        assertEquals(1, productCatalog.getProduct(102).getStock());
+    }
+
+    @Test
+    public void test_not_enough_stock() throws ApplicationException {
+        Rental rental = hpr.newRental(daysFromNow(10));
+        hpr.addProductToRental(rental, 102, 1);
+
+        Map<Integer, Integer> items = new HashMap<Integer, Integer>();
+        items.put(101, 1);
+        items.put(102, 1);
+        try {
+            hpr.addProductsToRental(rental, items);
+            fail("Titan V is out of stock");
+        } catch (ApplicationException e) {
+            // no product is added
+        }
+        assertEquals(20, productCatalog.getProduct(101).getStock());
+        assertEquals(1, hprri.getRental(rental.getId()).getRentalProducts().size());
+    }
+
+    @Test
+    public void test_unit_of_work_not_committed_is_undone() throws Exception {
+        Rental rental = hpr.newRental(daysFromNow(10));
+        Rental added;
+        UnitOfWork unit = storage.beginUnitOfWork();
+        try {
+            hpr.addProductToRental(rental, 101, 1);
+            assertTrue(rental.getRentalProducts().isEmpty());  // until the outer unit commits
+            hpr.closeRental(rental);
+            added = hpr.newRental(daysFromNow(10));
+            assertEquals(19, productCatalog.getProduct(101).getStock());
+        } finally {
+            unit.close();    // not committed, so rolled back
+        }
+        assertEquals(20, productCatalog.getProduct(101).getStock());
+        assertTrue(rental.getRentalProducts().isEmpty());
+        Rental stored = hprri.getRental(rental.getId());
+        assertTrue(stored.isOpen());
+        assertTrue(stored.getRentalProducts().isEmpty());
+        try {
+            hprri.getRental(added.getId());
+            fail("The rental was not committed");
+        } catch (ApplicationException e) {
+            // removed by the rollback
+        }
+    }
+
+    @Test
+    public void test_pages_and_overdue_rentals() throws ApplicationException {
+        for (int i = 0; i < 5; i++) {
+            Rental rental = hpr.newRental(daysFromNow(i));
+            hpr.addProductToRental(rental, 101, 1);
+        }
+        List<Rental> page = rentalCatalog.getRentals(0, 3);
+        assertEquals(3, page.size());
+        assertEquals(2, rentalCatalog.getRentals(page.get(2).getId(), 3).size());
+
+        LocalDate asOf = LocalDate.now().plusDays(3);
+        List<OverdueRental> overdue = rentalCatalog.findOverdueRentals(asOf);
+        assertEquals(3, overdue.size());
+        for (OverdueRental late : overdue)
+            assertEquals(700 * 0.20 * 0.5, late.getPenalty(), 0.001);
+    }
+
+    @Test
+    public void test_async_rentals_share_the_stock() throws Exception {
+        ExecutorService executor = UseCaseExecutors.newExecutor(8);
+        try {
+            HandlerProcessRental async = new HandlerProcessRental(rentalCatalog, executor);
+            List<CompletableFuture<Boolean>> rentals = new ArrayList<CompletableFuture<Boolean>>();
+            for (int i = 0; i < 100; i++)
+                rentals.add(async.newRentalAsync(daysFromNow(10))
+                        .thenCompose(rental -> async.addProductToRentalAsync(rental, 101, 1))
+                        .handle((done, failure) -> failure == null));
+
+            int rented = 0;
+            for (CompletableFuture<Boolean> rental : rentals)
+                if (rental.get())
+                    rented++;
+            assertEquals(20, rented);
+            assertEquals(0, productCatalog.getProduct(101).getStock());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
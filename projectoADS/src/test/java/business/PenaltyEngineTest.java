@@ -0,0 +1,68 @@
+package business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PenaltyEngineTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void test_same_penalties_as_rental() {
+        // enough rentals to be split across cores
+        List<Rental> rentals = rentals(PenaltyEngine.PARALLEL_THRESHOLD + 1000);
+        PenaltyEngine engine = new PenaltyEngine(rentals);
+        assertEquals(rentals.size(), engine.size());
+
+        long start = System.currentTimeMillis();
+        for (int days = -1; days <= 40; days += 3) {
+            Date now = new Date(start + days * DAY);
+            PenaltyEngine.Penalties penalties = engine.penalties(now);
+
+            double total = 0.0;
+            int overdue = 0;
+            for (int i = 0; i < rentals.size(); i++) {
+                Rental rental = rentals.get(i);
+                double penalty = rental.penalty(now);
+                assertEquals(rental.getId(), penalties.getRentalId(i));
+                assertEquals(penalty, penalties.getPenalty(i), 0.0);
+                total += penalty;
+                if (penalty > 0)
+                    overdue++;
+            }
+            assertEquals(total, penalties.getTotal(), 0.0);
+            assertEquals(overdue, penalties.getOverdueCount());
+        }
+    }
+
+    @Test
+    public void test_no_rentals() {
+        PenaltyEngine.Penalties penalties = new PenaltyEngine(new ArrayList<Rental>()).penalties(new Date());
+        assertEquals(0, penalties.size());
+        assertEquals(0.0, penalties.getTotal(), 0.0);
+    }
+
+    private static List<Rental> rentals(int count) {
+        ProductSpec[] products = {
+                new ProductSpec(1, 101, "A", 9.99, 10),
+                new ProductSpec(2, 102, "B", 0.35, 10),
+                new ProductSpec(3, 103, "C", 129.5, 10)
+        };
+        List<Rental> rentals = new ArrayList<Rental>(count);
+        for (int id = 0; id < count; id++) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.add(Calendar.HOUR, id % 720);
+            Rental rental = new Rental(id, new Date(), calendar.getTime());
+            for (int line = 0; line < id % 4; line++)
+                rental.addProductToRental(products[(id + line) % products.length], 1 + line);
+            rentals.add(rental);
+        }
+        return rentals;
+    }
+}
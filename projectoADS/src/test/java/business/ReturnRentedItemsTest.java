@@ -2,7 +2,10 @@ package business;
 
 import static org.junit.Assert.*;
 
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.Calendar;
+import java.util.Date;
 
 import dataaccess.PersistenceException;
 import org.junit.AfterClass;  // cf. API at http://junit.org/junit4/javadoc/latest/
@@ -135,6 +138,74 @@ public class ReturnRentedItemsTest {
 
     }
 
+    @Test
+    public void test_return_rental() throws ApplicationException {
+        ProductSpec prod1Before = productCatalog.getProduct(prod1.getProductCode());
+        ProductSpec prod2Before = productCatalog.getProduct(prod2.getProductCode());
+        ProductSpec prod3Before = productCatalog.getProduct(prod3.getProductCode());
+
+        hprri.returnRental(rental);
+        assertTrue(rental.isReturned());
+        assertTrue(rentalCatalog.getRental(rental.getId()).isReturned());
+
+        assertEquals(prod1Before.getStock() + 1, productCatalog.getProduct(prod1.getProductCode()).getStock());
+        assertEquals(prod2Before.getStock() + 1, productCatalog.getProduct(prod2.getProductCode()).getStock());
+        assertEquals(prod3Before.getStock() + 1, productCatalog.getProduct(prod3.getProductCode()).getStock());
+    }
+
+    @Test(expected = ApplicationException.class)
+    public void test_return_rental_twice() throws ApplicationException {
+        hprri.returnRental(rental);
+        hprri.returnRental(rental);
+    }
+
+    @Test
+    public void test_return_stale_rental() throws ApplicationException {
+        hprri.returnRental(rental);
+        int stock = productCatalog.getProduct(prod1.getProductCode()).getStock();
+
+        rental.unreturnItems();    // as a copy read before it was returned
+        try {
+            hprri.returnRental(rental);
+            fail("The rental was returned twice");
+        } catch (ApplicationException e) {
+            // expected
+        }
+        assertEquals(stock, productCatalog.getProduct(prod1.getProductCode()).getStock());
+    }
+
+    @Test
+    public void test_find_overdue_rentals() throws ApplicationException {
+        LocalDate today = LocalDate.now();
+        assertNull(findOverdue(today));
+
+        LocalDate late = today.plusDays(12);
+        OverdueRental overdue = findOverdue(late);
+        assertNotNull(overdue);
+        assertFalse(overdue.isPastHardLimit());
+        assertEquals(3, overdue.getItems());
+        assertEquals(rental.penalty(startOf(late)), overdue.getPenalty(), 0.001);
+
+        LocalDate veryLate = today.plusDays(20);
+        overdue = findOverdue(veryLate);
+        assertTrue(overdue.isPastHardLimit());
+        assertEquals(rental.penalty(startOf(veryLate)), overdue.getPenalty(), 0.001);
+
+        hprri.returnRental(rental);
+        assertNull(findOverdue(veryLate));
+    }
+
+    private OverdueRental findOverdue(LocalDate asOf) throws ApplicationException {
+        for (OverdueRental overdue : rentalCatalog.findOverdueRentals(asOf))
+            if (overdue.getRentalId() == rental.getId())
+                return overdue;
+        return null;
+    }
+
+    private static Date startOf(LocalDate day) {
+        return Date.from(day.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
     @AfterClass
     public static void finishAfterClass() {
         try {
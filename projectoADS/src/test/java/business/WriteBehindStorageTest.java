@@ -0,0 +1,130 @@
+package business;
+
+import static business.Fixtures.daysFromNow;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dataaccess.DatabaseStorage;
+import dataaccess.RecordNotFoundException;
+import dataaccess.UnitOfWork;
+import dataaccess.WriteBehindStorage;
+import use_cases.HandlerProcessRental;
+import use_cases.HandlerProcessReturnRentedItems;
+
+public class WriteBehindStorageTest {
+
+    private RentalSys app;
+    private Path journalFile;
+
+    @Before
+    public void setup() throws Exception {
+        app = new RentalSys();
+        app.start();
+        journalFile = Files.createTempFile("rentals", ".journal");
+    }
+
+    @After
+    public void finish() throws Exception {
+        app.stop();
+        Files.deleteIfExists(journalFile);
+    }
+
+    @Test
+    public void test_changes_reach_the_database() throws Exception {
+        CatalogProduct databaseProducts = new CatalogProduct(DatabaseStorage.INSTANCE);
+        int stock = databaseProducts.getProduct(105).getStock();
+
+        WriteBehindStorage storage = WriteBehindStorage.open(journalFile, 1024 * 1024, false);
+        int rentalId;
+        try {
+            CatalogRental rentalCatalog = new CatalogRental(storage);
+            HandlerProcessRental hpr = new HandlerProcessRental(rentalCatalog);
+            Rental rental = hpr.newRental(daysFromNow(10));
+            rentalId = rental.getId();
+            hpr.addProductToRental(rental, 105, 1);
+            hpr.addProductToRental(rental, 106, 1);
+            hpr.closeRental(rental);
+
+            // seen before being applied
+            Rental pending = new HandlerProcessReturnRentedItems(rentalCatalog).getRental(rentalId);
+            assertFalse(pending.isOpen());
+            assertEquals(2, pending.getRentalProducts().size());
+            assertEquals(stock - 1, new CatalogProduct(storage).getProduct(105).getStock());
+        } finally {
+            storage.close();
+        }
+
+        Rental stored = new CatalogRental(DatabaseStorage.INSTANCE).getRental(rentalId);
+        assertFalse(stored.isOpen());
+        assertEquals(2, stored.getRentalProducts().size());
+        assertEquals(stock - 1, databaseProducts.getProduct(105).getStock());
+
+        // the database continues after the ids given by the storage
+        HandlerProcessReturnRentedItems hprri =
+                new HandlerProcessReturnRentedItems(new CatalogRental(DatabaseStorage.INSTANCE));
+        hprri.returnRental(stored);
+        HandlerProcessRental hpr = new HandlerProcessRental(new CatalogRental(DatabaseStorage.INSTANCE));
+        assertTrue(hpr.newRental(daysFromNow(1)).getId() > rentalId);
+        assertEquals(stock, databaseProducts.getProduct(105).getStock());
+    }
+
+    @Test
+    public void test_concurrent_lines_of_a_rental_are_kept() throws Exception {
+        WriteBehindStorage storage = WriteBehindStorage.open(journalFile, 1024 * 1024, false);
+        try {
+            int rentalId = storage.rentals().insert(daysFromNow(0), daysFromNow(10));
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<?>> adds = new ArrayList<Future<?>>();
+                for (int i = 0; i < 1000; i++)
+                    adds.add(executor.submit(() -> storage.rentalLines().insert(rentalId, 1006, 1)));
+                for (Future<?> add : adds)
+                    add.get();
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(1000, storage.rentalLines().getRentalProducts(rentalId).size());
+            storage.rentals().delete(rentalId);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void test_unit_of_work_not_committed_is_undone() throws Exception {
+        WriteBehindStorage storage = WriteBehindStorage.open(journalFile, 1024 * 1024, false);
+        try {
+            int stock = storage.products().getProductById(1006).getStock();
+            int rentalId;
+            UnitOfWork unit = storage.beginUnitOfWork();
+            try {
+                rentalId = storage.rentals().insert(daysFromNow(0), daysFromNow(10));
+                assertTrue(storage.products().decreaseStock(1006, 1));
+                storage.rentalLines().insert(rentalId, 1006, 1);
+                assertEquals(stock - 1, storage.products().getProductById(1006).getStock());
+            } finally {
+                unit.close();    // not committed, so rolled back
+            }
+            assertEquals(stock, storage.products().getProductById(1006).getStock());
+            try {
+                storage.rentals().getRentalById(rentalId);
+                fail("The rental was not committed");
+            } catch (RecordNotFoundException e) {
+                // as expected
+            }
+        } finally {
+            storage.close();
+        }
+    }
+}
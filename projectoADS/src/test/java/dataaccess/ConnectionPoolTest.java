@@ -0,0 +1,110 @@
+package dataaccess;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+    // a scratch database, so the tests do not touch the application's one
+    private static final String URL = "jdbc:derby:memory:pooltest;create=true";
+
+    private ConnectionPool pool;
+
+    @Before
+    public void setup() throws Exception {
+        pool = new ConnectionPool(URL, "", "", 1, 4, 200, 8);
+    }
+
+    @After
+    public void finish() {
+        pool.close();
+    }
+
+    @Test
+    public void test_concurrent_borrow_up_to_max_size() throws Exception {
+        int threads = pool.getMaxSize();
+        CountDownLatch borrowed = new CountDownLatch(threads);
+        CountDownLatch done = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<PooledConnection>> connections = new ArrayList<Future<PooledConnection>>();
+            for (int i = 0; i < threads; i++)
+                connections.add(executor.submit(() -> {
+                    PooledConnection connection = pool.borrow();
+                    borrowed.countDown();
+                    done.await();
+                    pool.release(connection);
+                    return connection;
+                }));
+            borrowed.await();
+
+            // every connection is lent, so one more borrow times out
+            try {
+                pool.borrow();
+                fail("The pool should be exhausted");
+            } catch (PersistenceException e) {
+                // expected
+            }
+
+            done.countDown();
+            Set<PooledConnection> distinct = new HashSet<PooledConnection>();
+            for (Future<PooledConnection> connection : connections)
+                distinct.add(connection.get());
+            assertEquals(threads, distinct.size());
+        } finally {
+            executor.shutdown();
+        }
+
+        // the connections were given back
+        pool.release(pool.borrow());
+    }
+
+    @Test
+    public void test_borrow_timeout() throws Exception {
+        List<PooledConnection> lent = new ArrayList<PooledConnection>();
+        for (int i = 0; i < pool.getMaxSize(); i++)
+            lent.add(pool.borrow());
+
+        long start = System.nanoTime();
+        try {
+            pool.borrow();
+            fail("The pool should be exhausted");
+        } catch (PersistenceException e) {
+            assertTrue(e.getMessage().contains("Timeout"));
+        }
+        assertTrue(System.nanoTime() - start >= 150 * 1_000_000L);
+
+        pool.release(lent.remove(0));
+        lent.add(pool.borrow());
+        for (PooledConnection connection : lent)
+            pool.release(connection);
+    }
+
+    @Test
+    public void test_invalid_connection_is_replaced() throws Exception {
+        PooledConnection broken = pool.borrow();
+        pool.release(broken);
+        // the idle connection stops being usable while in the pool
+        broken.getConnection().close();
+
+        PooledConnection replacement = pool.borrow();
+        try {
+            assertNotSame(broken, replacement);
+            assertTrue(replacement.getConnection().isValid(1));
+        } finally {
+            pool.release(replacement);
+        }
+    }
+}
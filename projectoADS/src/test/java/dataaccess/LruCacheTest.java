@@ -0,0 +1,55 @@
+package dataaccess;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+
+    @Test
+    public void test_get_put_remove() {
+        Cache<Integer, String> cache = new LruCache<Integer, String>(100);
+        assertNull(cache.get(1));
+        cache.put(1, "one");
+        assertEquals("one", cache.get(1));
+        cache.remove(1);
+        assertNull(cache.get(1));
+
+        CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+    }
+
+    @Test
+    public void test_size_is_bounded() {
+        Cache<Integer, Integer> cache = new LruCache<Integer, Integer>(64);
+        for (int i = 0; i < 10000; i++)
+            cache.put(i, i);
+        assertTrue(cache.size() <= 64);
+        assertEquals(10000 - cache.size(), cache.getStats().getEvictions());
+    }
+
+    @Test
+    public void test_least_recently_used_is_evicted() {
+        // a cache this small has a single segment
+        Cache<Integer, Integer> cache = new LruCache<Integer, Integer>(2);
+        cache.put(1, 1);
+        cache.put(3, 3);
+        cache.get(1);
+        cache.put(5, 5);
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(3));
+    }
+
+    @Test
+    public void test_entries_expire() throws InterruptedException {
+        Cache<Integer, Integer> cache = new LruCache<Integer, Integer>(10, 20, TimeUnit.MILLISECONDS);
+        cache.put(1, 1);
+        assertNotNull(cache.get(1));
+        Thread.sleep(50);
+        assertNull(cache.get(1));
+        assertEquals(1, cache.getStats().getEvictions());
+    }
+}
@@ -0,0 +1,88 @@
+package dataaccess;
+
+import static org.junit.Assert.*;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProductMapperTest {
+
+    // a product of the test only
+    private static final int PRODUCT = 6000001;
+
+    @Before
+    public void setup() throws Exception {
+        DataSource.INSTANCE.connect("jdbc:derby:data/derby/adsdb;create=false", "RentalSys", "");
+        execute("INSERT INTO product (id, itemid, description, price, qty) VALUES (" + PRODUCT + ", 6001, 'Test', 10, 2)");
+        ProductMapper.clearCache();
+    }
+
+    @After
+    public void finish() throws Exception {
+        execute("DELETE FROM product WHERE id = " + PRODUCT);
+        ProductMapper.clearCache();
+        DataSource.INSTANCE.close();
+    }
+
+    @Test
+    public void test_decrease_stock_without_enough_units() throws Exception {
+        assertEquals(2, ProductMapper.getProductById(PRODUCT).getStock());  // cached
+
+        assertFalse(ProductMapper.decreaseStock(PRODUCT, 3));
+        assertEquals(2, storedStock());
+        assertEquals(2, ProductMapper.getProductById(PRODUCT).getStock());
+
+        assertTrue(ProductMapper.decreaseStock(PRODUCT, 2));
+        assertEquals(0, storedStock());
+        assertEquals(0, ProductMapper.getProductById(PRODUCT).getStock());
+        assertFalse(ProductMapper.decreaseStock(PRODUCT, 1));
+        assertEquals(0, storedStock());
+    }
+
+    @Test
+    public void test_stock_taken_in_a_unit_of_work_is_cached_on_commit() throws Exception {
+        assertEquals(2, ProductMapper.getProductById(PRODUCT).getStock());  // cached
+
+        try (DatabaseUnitOfWork unit = DatabaseUnitOfWork.begin()) {
+            assertTrue(ProductMapper.decreaseStock(PRODUCT, 1));
+            // the transaction reads its own change, the cache keeps the committed stock
+            assertEquals(1, ProductMapper.getProductById(PRODUCT).getStock());
+            unit.commit();
+        }
+        // a change behind the mapper's back shows the product is read from the cache
+        execute("UPDATE product SET qty = 9 WHERE id = " + PRODUCT);
+        assertEquals(1, ProductMapper.getProductById(PRODUCT).getStock());
+    }
+
+    @Test
+    public void test_stock_taken_in_a_rolled_back_unit_of_work_stays_cached() throws Exception {
+        assertEquals(2, ProductMapper.getProductById(PRODUCT).getStock());  // cached
+
+        DatabaseUnitOfWork unit = DatabaseUnitOfWork.begin();
+        try {
+            assertTrue(ProductMapper.decreaseStock(PRODUCT, 1));
+        } finally {
+            unit.close();    // not committed, so rolled back
+        }
+        execute("UPDATE product SET qty = 9 WHERE id = " + PRODUCT);
+        assertEquals(2, ProductMapper.getProductById(PRODUCT).getStock());
+    }
+
+    private static int storedStock() throws Exception {
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare("SELECT qty FROM product WHERE id = " + PRODUCT);
+             ResultSet rs = statement.executeQuery()) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(sql)) {
+            statement.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package dataaccess;
+
+import static org.junit.Assert.*;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import business.Rental;
+
+public class RentalMapperTest {
+
+    // rentals of the test only, after every other rental
+    private static final int FIRST = 7000001, RENTALS = 4;
+
+    @Before
+    public void setup() throws Exception {
+        DataSource.INSTANCE.connect("jdbc:derby:data/derby/adsdb;create=false", "RentalSys", "");
+        for (int id = FIRST; id < FIRST + RENTALS; id++)
+            execute("INSERT INTO rental (id, date, return_date, total, status, return_status) VALUES ("
+                    + id + ", CURRENT_DATE, CURRENT_DATE, 0, '" + Rental.OPEN + "', " + Rental.WAITING + ")");
+        execute("INSERT INTO product (id, itemid, description, price, qty) VALUES (" + FIRST + ", 7001, 'Test', 10, 5)");
+        RentalMapper.clearCache();
+    }
+
+    @After
+    public void finish() throws Exception {
+        execute("DELETE FROM rentalproduct WHERE rental_id >= " + FIRST);
+        execute("DELETE FROM rental WHERE id >= " + FIRST);
+        execute("DELETE FROM product WHERE id = " + FIRST);
+        RentalMapper.clearCache();
+        DataSource.INSTANCE.close();
+    }
+
+    @Test
+    public void test_pages_of_an_exact_multiple() throws Exception {
+        assertEquals(ids(FIRST, FIRST + 1), ids(RentalMapper.getRentalPage(FIRST - 1, 2)));
+        assertEquals(ids(FIRST + 2, FIRST + 3), ids(RentalMapper.getRentalPage(FIRST + 1, 2)));
+        // the last full page cannot tell it is the last, so an empty page follows
+        assertTrue(RentalMapper.getRentalPage(FIRST + 3, 2).isEmpty());
+    }
+
+    @Test
+    public void test_last_page_is_smaller() throws Exception {
+        assertEquals(ids(FIRST, FIRST + 1, FIRST + 2), ids(RentalMapper.getRentalPage(FIRST - 1, 3)));
+        assertEquals(ids(FIRST + 3), ids(RentalMapper.getRentalPage(FIRST + 2, 3)));
+    }
+
+    @Test
+    public void test_page_continues_after_the_last_id() throws Exception {
+        // the key need not be a stored id: the page starts at the next one
+        execute("DELETE FROM rental WHERE id = " + (FIRST + 1));
+        assertEquals(ids(FIRST + 2, FIRST + 3), ids(RentalMapper.getRentalPage(FIRST + 1, 2)));
+        assertEquals(ids(FIRST, FIRST + 2), ids(RentalMapper.getRentalPage(FIRST - 1, 2)));
+        assertTrue(RentalMapper.getRentalPage(FIRST + RENTALS, 2).isEmpty());
+    }
+
+    @Test
+    public void test_all_rentals_have_their_products() throws Exception {
+        for (int id = FIRST; id < FIRST + RENTALS; id += 2)
+            execute("INSERT INTO rentalproduct (rental_id, product_id, qty) VALUES (" + id + ", " + FIRST + ", 1)");
+        RentalMapper.getRentalById(FIRST);    // cached, so its products are not read again
+
+        int found = 0;
+        for (Rental rental : RentalMapper.getAllRentals())
+            if (rental.getId() >= FIRST) {
+                found++;
+                int lines = (rental.getId() - FIRST) % 2 == 0 ? 1 : 0;
+                assertEquals(lines, rental.getRentalProducts().size());
+                if (lines > 0)
+                    assertEquals(7001, rental.getRentalProducts().get(0).getProduct().getProductCode());
+            }
+        assertEquals(RENTALS, found);
+    }
+
+    @Test
+    public void test_rollback_evicts_only_the_rentals_changed() throws Exception {
+        Rental other = RentalMapper.getRentalById(FIRST + 1);    // cached
+
+        DatabaseUnitOfWork unit = DatabaseUnitOfWork.begin();
+        try {
+            RentalMapper.update(FIRST, 42, Rental.CLOSED);
+            assertEquals(Rental.CLOSED, RentalMapper.getRentalById(FIRST).getStatus());  // cached, not committed
+        } finally {
+            unit.close();    // not committed, so rolled back
+        }
+        assertEquals(Rental.OPEN, RentalMapper.getRentalById(FIRST).getStatus());
+        assertSame(other, RentalMapper.getRentalById(FIRST + 1));
+    }
+
+    private static List<Integer> ids(int... ids) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int id : ids)
+            list.add(id);
+        return list;
+    }
+
+    private static List<Integer> ids(List<Rental> rentals) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (Rental rental : rentals)
+            list.add(rental.getId());
+        return list;
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (PreparedStatement statement = DataSource.INSTANCE.prepare(sql)) {
+            statement.executeUpdate();
+        }
+    }
+}
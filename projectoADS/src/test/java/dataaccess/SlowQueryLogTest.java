@@ -0,0 +1,53 @@
+package dataaccess;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import business.ProductSpec;
+
+public class SlowQueryLogTest {
+
+    @Before
+    public void setup() throws PersistenceException {
+        DataSource.INSTANCE.connect("jdbc:derby:data/derby/adsdb;create=false", "RentalSys", "");
+    }
+
+    @After
+    public void finish() {
+        DataSource.INSTANCE.setSlowQueryLog(null);
+        DataSource.INSTANCE.close();
+    }
+
+    @Test
+    public void test_statements_are_traced() throws Exception {
+        StringWriter out = new StringWriter();
+        SlowQueryLog log = new SlowQueryLog(0, TimeUnit.MILLISECONDS, out);
+        DataSource.INSTANCE.setSlowQueryLog(log);
+        ProductMapper.clearCache();
+        ProductSpec product = ProductMapper.getProductById(1001);
+        log.close();
+
+        String trace = out.toString();
+        assertTrue(trace, trace.contains("rows=1 ProductMapper.getProductById"));
+        assertTrue(trace, trace.contains("[1001]"));
+        assertEquals(1, log.getLogged());
+        assertEquals(101, product.getProductCode());
+    }
+
+    @Test
+    public void test_fast_statements_are_not_written() throws Exception {
+        StringWriter out = new StringWriter();
+        SlowQueryLog log = new SlowQueryLog(1, TimeUnit.HOURS, out);
+        DataSource.INSTANCE.setSlowQueryLog(log);
+        ProductMapper.clearCache();
+        ProductMapper.getProductById(1001);
+        log.close();
+        assertEquals("", out.toString());
+    }
+}
@@ -0,0 +1,87 @@
+package dataaccess;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatementCacheTest {
+
+    // a scratch database, so the tests do not touch the application's one
+    private static final String URL = "jdbc:derby:memory:statementtest;create=true";
+
+    private Connection connection;
+    private AtomicLong hits;
+    private AtomicLong misses;
+    private StatementCache cache;
+
+    @Before
+    public void setup() throws Exception {
+        connection = DriverManager.getConnection(URL);
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        cache = new StatementCache(connection, 2, hits, misses);
+    }
+
+    @After
+    public void finish() throws Exception {
+        cache.clear();
+        connection.close();
+    }
+
+    @Test
+    public void test_same_sql_is_a_hit() throws Exception {
+        PreparedStatement first = cache.checkout("VALUES 1", false);
+        cache.checkin("VALUES 1", false, first);
+
+        assertSame(first, cache.checkout("VALUES 1", false));
+        assertEquals(1, hits.get());
+        assertEquals(1, misses.get());
+
+        // a statement returning generated keys is a different one
+        PreparedStatement withKeys = cache.checkout("VALUES 1", true);
+        assertNotSame(first, withKeys);
+        assertEquals(2, misses.get());
+        cache.checkin("VALUES 1", false, first);
+        cache.checkin("VALUES 1", true, withKeys);
+    }
+
+    @Test
+    public void test_eviction_closes_the_least_recently_used() throws Exception {
+        PreparedStatement one = cache.checkout("VALUES 1", false);
+        PreparedStatement two = cache.checkout("VALUES 2", false);
+        PreparedStatement three = cache.checkout("VALUES 3", false);
+        cache.checkin("VALUES 1", false, one);
+        cache.checkin("VALUES 2", false, two);
+        cache.checkin("VALUES 1", false, cache.checkout("VALUES 1", false));  // VALUES 2 is now the eldest
+        cache.checkin("VALUES 3", false, three);
+
+        assertTrue(two.isClosed());
+        assertFalse(one.isClosed());
+        assertFalse(three.isClosed());
+        assertNotSame(two, cache.checkout("VALUES 2", false));
+        assertSame(one, cache.checkout("VALUES 1", false));
+    }
+
+    @Test
+    public void test_statement_in_use_is_prepared_again() throws Exception {
+        PreparedStatement outer = cache.checkout("VALUES 1", false);
+        PreparedStatement nested = cache.checkout("VALUES 1", false);
+        assertNotSame(outer, nested);
+        assertEquals(0, hits.get());
+        assertEquals(2, misses.get());
+
+        // only one of them is kept for the same SQL, the other is closed
+        cache.checkin("VALUES 1", false, nested);
+        cache.checkin("VALUES 1", false, outer);
+        assertTrue(nested.isClosed());
+        assertSame(outer, cache.checkout("VALUES 1", false));
+        cache.checkin("VALUES 1", false, outer);
+    }
+}
@@ -0,0 +1,82 @@
+package dbutils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dataaccess.DataSource;
+
+public class BulkImportTest {
+
+    private Connection connection;
+
+    @Before
+    public void setup() throws Exception {
+        DataSource.INSTANCE.connect("jdbc:derby:data/derby/adsdb;create=false", "RentalSys", "");
+        connection = DataSource.INSTANCE.getConnection();
+    }
+
+    @After
+    public void finish() throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM product WHERE id > 3000000");
+            // the import moved the identity past the products imported, so move it back
+            try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM product")) {
+                rs.next();
+                statement.executeUpdate("ALTER TABLE product ALTER COLUMN id RESTART WITH " + rs.getInt(1));
+            }
+        }
+        DataSource.INSTANCE.close();
+    }
+
+    @Test
+    public void test_parse_quoted_fields() throws Exception {
+        assertEquals(Arrays.asList("1", "GTX, \"Ti\"", "", "7"),
+                BulkImport.parseLine("1,\"GTX, \"\"Ti\"\"\",,7"));
+    }
+
+    @Test
+    public void test_import_products() throws Exception {
+        String csv = "ID,ITEMID,DESCRIPTION,PRICE,QTY\n"
+                + "3000001,3001,\"Quadro, RTX\",2500,3\n"
+                + "3000002,3002,Radeon VII,700,4\n"
+                + "3000003,3003,,100,\n";
+        BulkImport importer = new BulkImport(connection, 2, 2);
+        assertEquals(3, importer.importCSV(BulkImport.Table.PRODUCT, new StringReader(csv)));
+
+        File file = File.createTempFile("products", ".csv");
+        try {
+            Files.write(file.toPath(), ("ID,ITEMID,DESCRIPTION,PRICE,QTY\n"
+                    + "3000004,3004,Arc A770,350,9\n").getBytes(StandardCharsets.UTF_8));
+            assertEquals(1, importer.importWithDerby(BulkImport.Table.PRODUCT, file));
+        } finally {
+            file.delete();
+        }
+
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(
+                     "SELECT description, qty FROM product WHERE id > 3000000 ORDER BY id")) {
+            assertTrue(rs.next());
+            assertEquals("Quadro, RTX", rs.getString(1));
+            assertTrue(rs.next());
+            assertTrue(rs.next());
+            assertNull(rs.getString(1));
+            rs.getInt(2);
+            assertTrue(rs.wasNull());
+            assertTrue(rs.next());
+            assertEquals(9, rs.getInt(2));
+            assertFalse(rs.next());
+        }
+    }
+}
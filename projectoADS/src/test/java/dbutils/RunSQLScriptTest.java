@@ -0,0 +1,85 @@
+package dbutils;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dataaccess.DataSource;
+
+public class RunSQLScriptTest {
+
+    private Connection connection;
+
+    @Before
+    public void setup() throws Exception {
+        DataSource.INSTANCE.connect("jdbc:derby:data/derby/adsdb;create=false", "RentalSys", "");
+        connection = DataSource.INSTANCE.getConnection();
+    }
+
+    @After
+    public void finish() throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM product WHERE id > 4000000");
+        }
+        DataSource.INSTANCE.close();
+    }
+
+    @Test
+    public void test_parse_multi_line_statements() throws Exception {
+        String script = "-- the products\n"
+                + "INSERT INTO PRODUCT (ID, DESCRIPTION)\n"
+                + "  VALUES (1, 'a; b -- c');  -- trailing comment\n"
+                + "\n"
+                + "DELETE FROM PRODUCT WHERE DESCRIPTION = 'it''s';\n"
+                + "DELETE FROM RENTAL";
+        assertEquals(Arrays.asList("INSERT INTO PRODUCT (ID, DESCRIPTION)\n  VALUES (1, 'a; b -- c')",
+                "DELETE FROM PRODUCT WHERE DESCRIPTION = 'it''s'",
+                "DELETE FROM RENTAL"),
+                RunSQLScript.parse(new StringReader(script)));
+    }
+
+    @Test
+    public void test_parse_one_statement_per_line() throws Exception {
+        String script = "CREATE INDEX A ON RENTAL (RETURN_STATUS)\n"
+                + "-- a comment\n"
+                + "\n"
+                + "CREATE INDEX B ON RENTAL (STATUS)";
+        assertEquals(Arrays.asList("CREATE INDEX A ON RENTAL (RETURN_STATUS)", "CREATE INDEX B ON RENTAL (STATUS)"),
+                RunSQLScript.parse(new StringReader(script)));
+    }
+
+    @Test
+    public void test_failed_script_is_rolled_back() throws Exception {
+        String script = "INSERT INTO PRODUCT (ID, ITEMID, DESCRIPTION, PRICE, QTY) VALUES (4000001, 4001, 'A', 1, 1);\n"
+                + "INSERT INTO PRODUCT (ID, ITEMID, DESCRIPTION, PRICE, QTY) VALUES (4000002, 4002, 'B', 1, 1);\n"
+                + "UPDATE NO_SUCH_TABLE SET X = 1;\n";
+        try {
+            RunSQLScript.runScript(connection, new StringReader(script), false);
+            fail("The script should have failed");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertTrue(connection.getAutoCommit());
+        assertEquals(0, countTestProducts());
+
+        assertEquals(2, RunSQLScript.runScript(connection, new StringReader(script.substring(0, script.lastIndexOf("UPDATE"))), false));
+        assertEquals(2, countTestProducts());
+    }
+
+    private int countTestProducts() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM product WHERE id > 4000000")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package dbutils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SchemaMigratorTest {
+
+    // a scratch database, so the migrations do not touch the application's one
+    private static final String URL = "jdbc:derby:memory:migratortest;create=true";
+
+    private File directory;
+    private Connection connection;
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("migrations").toFile();
+        connection = DriverManager.getConnection(URL);
+    }
+
+    @After
+    public void finish() throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE SCHEMA_VERSION");
+            statement.execute("DROP TABLE MIGRATED");
+        } finally {
+            connection.close();
+            for (File file : directory.listFiles())
+                file.delete();
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void test_each_migration_is_applied_once() throws Exception {
+        write("V1__create_table.sql", "CREATE TABLE MIGRATED (ID INTEGER);\n");
+        write("V2__insert_row.sql", "INSERT INTO MIGRATED VALUES (1);\n");
+        write("README.txt", "not a migration");
+        SchemaMigrator migrator = new SchemaMigrator(directory.getPath());
+
+        assertEquals(2, migrator.migrate(connection));
+        assertEquals(1, count("MIGRATED"));
+        assertEquals(2, count("SCHEMA_VERSION"));
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT VERSION, DESCRIPTION FROM SCHEMA_VERSION ORDER BY VERSION")) {
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            assertEquals("create table", rs.getString(2));
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+            assertEquals("insert row", rs.getString(2));
+        }
+
+        // a rerun applies nothing, a new script only is applied
+        assertEquals(0, migrator.migrate(connection));
+        assertEquals(1, count("MIGRATED"));
+        write("V3__insert_another_row.sql", "INSERT INTO MIGRATED VALUES (2);\n");
+        assertEquals(1, migrator.migrate(connection));
+        assertEquals(2, count("MIGRATED"));
+        assertEquals(3, count("SCHEMA_VERSION"));
+        assertTrue(connection.getAutoCommit());
+    }
+
+    private void write(String name, String script) throws Exception {
+        Files.write(new File(directory, name).toPath(), script.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int count(String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
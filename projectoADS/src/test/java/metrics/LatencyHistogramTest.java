@@ -0,0 +1,63 @@
+package metrics;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void test_percentiles_within_bucket_precision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++)
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(5000, histogram.getPercentile(50, TimeUnit.MICROSECONDS), 5000 / 32.0);
+        assertEquals(9900, histogram.getPercentile(99, TimeUnit.MICROSECONDS), 9900 / 32.0);
+        assertEquals(10000, histogram.getMax(TimeUnit.MICROSECONDS), 0.001);
+        assertEquals(5000.5, histogram.getMean(TimeUnit.MICROSECONDS), 0.001);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99, TimeUnit.MICROSECONDS), 0.0);
+    }
+
+    @Test
+    public void test_buckets_cover_their_values() {
+        for (long value = 0; value < 100000; value += 7)
+            assertTrue(LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(value)) >= value);
+        for (int bucket = 1; bucket < 1000; bucket++)
+            assertEquals(bucket, LatencyHistogram.bucketOf(LatencyHistogram.highestValueOf(bucket)));
+    }
+
+    @Test
+    public void test_metrics_published_through_jmx() throws Exception {
+        OperationMetrics metrics = Metrics.of("Test", "histogram");
+        metrics.record(TimeUnit.MILLISECONDS.toNanos(2), false);
+        try {
+            metrics.time(() -> {
+                throw new IllegalStateException();
+            });
+            fail("The work fails");
+        } catch (IllegalStateException e) {
+            // recorded as a failure
+        }
+
+        Metrics.registerMBeans();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(Metrics.DOMAIN + ":type=Test,name=\"histogram\"");
+            assertEquals(2L, server.getAttribute(name, "Count"));
+            assertEquals(1L, server.getAttribute(name, "Failures"));
+        } finally {
+            Metrics.unregisterMBeans();
+        }
+    }
+}
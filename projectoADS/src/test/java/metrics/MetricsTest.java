@@ -0,0 +1,36 @@
+package metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void test_sql_name_ignores_literals_and_list_lengths() {
+        assertEquals("SELECT * FROM product WHERE itemid IN (?...)",
+                Metrics.sqlName("SELECT * FROM product WHERE itemid IN (?, ?, ?)"));
+        assertEquals(Metrics.sqlName("SELECT * FROM product WHERE itemid IN (?)"),
+                Metrics.sqlName("SELECT * FROM product WHERE itemid IN (?,?)"));
+        assertEquals("ALTER TABLE rental ALTER COLUMN id RESTART WITH ?",
+                Metrics.sqlName("ALTER TABLE rental ALTER COLUMN id RESTART WITH 1042"));
+        assertEquals("SELECT qty FROM product WHERE id = ? AND description = ? AND price > ?",
+                Metrics.sqlName("SELECT qty FROM product\n  WHERE id = 6000001 AND description = 'it''s' AND price > 9.5"));
+        assertEquals("INSERT INTO rentalproduct (rental_id, product_id, qty) VALUES (?...), ...",
+                Metrics.sqlName("INSERT INTO rentalproduct (rental_id, product_id, qty) VALUES (?, ?, ?), (?, ?, ?)"));
+    }
+
+    @Test
+    public void test_sql_metrics_are_shared_by_statements_of_the_same_shape() {
+        OperationMetrics metrics = Metrics.ofSql("SELECT qty FROM product WHERE id = ?");
+        assertSame(metrics, Metrics.ofSql("SELECT qty FROM product WHERE id = ?"));
+        assertSame(metrics, Metrics.ofSql("SELECT qty FROM product WHERE id = 6000001"));
+        assertSame(metrics, Metrics.of(Metrics.SQL, "SELECT qty FROM product WHERE id = ?"));
+    }
+
+    @Test
+    public void test_sql_name_keeps_identifiers() {
+        assertEquals("SELECT c1, t2.col3 FROM t2 WHERE x = ?",
+                Metrics.sqlName("SELECT c1, t2.col3 FROM t2 WHERE x = ?"));
+    }
+}